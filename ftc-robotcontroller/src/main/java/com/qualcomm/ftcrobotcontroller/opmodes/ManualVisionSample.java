@@ -28,6 +28,7 @@ public class ManualVisionSample extends ManualVisionOpMode {
     private Beacon.BeaconAnalysis colorAnalysis = new Beacon.BeaconAnalysis();
     private ColorBlobDetector detectorRed;
     private ColorBlobDetector detectorBlue;
+    private Beacon beacon;
 
     @Override
     public void init() {
@@ -36,6 +37,8 @@ public class ManualVisionSample extends ManualVisionOpMode {
         /* Initialize all detectors here */
         detectorRed = new ColorBlobDetector(lowerBoundRed, upperBoundRed);
         detectorBlue = new ColorBlobDetector(lowerBoundBlue, upperBoundBlue);
+        //Create the beacon once, since it holds buffers that are reused on every frame
+        beacon = new Beacon(Beacon.AnalysisMethod.FAST);
 
         /**
          * Set the camera used for detection
@@ -65,13 +68,16 @@ public class ManualVisionSample extends ManualVisionOpMode {
     @Override
     public void stop() {
         super.stop();
+
+        //The camera is stopped, so no frame is using them anymore
+        beacon.release();
+        detectorRed.release();
+        detectorBlue.release();
     }
 
     @Override
     public Mat frame(Mat rgba, Mat gray) {
         try {
-            //Prepare beacon instance
-            Beacon beacon = new Beacon(Beacon.AnalysisMethod.FAST);
             //You may need to change the Screen Orientation to your preference
             ScreenOrientation orientation = ScreenOrientation.LANDSCAPE_REVERSE;
             //Analyze the frame and return the analysis
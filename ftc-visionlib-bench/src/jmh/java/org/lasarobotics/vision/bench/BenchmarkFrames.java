@@ -0,0 +1,179 @@
+/*
+ * Copyright (c) 2016 Arthur Pachachura, LASA Robotics, and contributors
+ * MIT licensed
+ */
+package org.lasarobotics.vision.bench;
+
+import org.lasarobotics.vision.detection.objects.Contour;
+import org.lasarobotics.vision.frame.FrameSource;
+import org.lasarobotics.vision.frame.ImageDirectorySource;
+import org.lasarobotics.vision.frame.SyntheticFrameSource;
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfPoint;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Canned frames shared by all benchmarks
+ * <p/>
+ * Frames are synthetic beacon images unless the ftcvision.bench.frames system property
+ * points to a directory of recorded images, in which case those are scaled to the requested size.
+ */
+public final class BenchmarkFrames {
+    /**
+     * System property containing a directory of images to benchmark on
+     */
+    public static final String FRAMES_PROPERTY = "ftcvision.bench.frames";
+    /**
+     * Number of synthetic frames to generate
+     */
+    private static final int SYNTHETIC_FRAMES = 16;
+
+    private static boolean nativeLoaded = false;
+
+    private final List<Mat> rgba = new ArrayList<>();
+    private final List<Mat> gray = new ArrayList<>();
+    private int index = -1;
+
+    /**
+     * Load canned frames of a particular size
+     *
+     * @param size Frame size, such as "640x480"
+     */
+    public BenchmarkFrames(String size) {
+        loadNativeLibrary();
+        Size frameSize = parseSize(size);
+
+        String directory = System.getProperty(FRAMES_PROPERTY);
+        FrameSource source = (directory != null && directory.length() > 0) ?
+                new ImageDirectorySource(new File(directory), false) :
+                new SyntheticFrameSource((int) frameSize.width, (int) frameSize.height,
+                        SYNTHETIC_FRAMES, new SyntheticFrameSource.BeaconGenerator());
+
+        source.open();
+        while (source.grab()) {
+            Mat r = new Mat();
+            Mat g = new Mat();
+            if (source.getFrameSize().equals(frameSize)) {
+                source.rgba().copyTo(r);
+                source.gray().copyTo(g);
+            } else {
+                Imgproc.resize(source.rgba(), r, frameSize, 0, 0, Imgproc.INTER_AREA);
+                Imgproc.cvtColor(r, g, Imgproc.COLOR_RGBA2GRAY);
+            }
+            rgba.add(r);
+            gray.add(g);
+        }
+        source.close();
+    }
+
+    /**
+     * Load the OpenCV native library once per JVM
+     */
+    public static synchronized void loadNativeLibrary() {
+        if (nativeLoaded)
+            return;
+        System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+        nativeLoaded = true;
+    }
+
+    /**
+     * Parse a frame size in the form WIDTHxHEIGHT
+     *
+     * @param size Frame size string
+     * @return Frame size
+     */
+    public static Size parseSize(String size) {
+        String[] parts = size.toLowerCase().split("x");
+        if (parts.length != 2)
+            throw new IllegalArgumentException("Frame size must be in the form WIDTHxHEIGHT: " + size);
+        return new Size(Integer.parseInt(parts[0].trim()), Integer.parseInt(parts[1].trim()));
+    }
+
+    /**
+     * Copy contours so they remain valid after their detector processes another frame
+     *
+     * @param contours Contours to copy
+     * @return Copied contours, which must be released by the caller
+     */
+    public static List<Contour> copyContours(List<Contour> contours) {
+        List<Contour> copy = new ArrayList<>(contours.size());
+        for (Contour c : contours) {
+            MatOfPoint data = new MatOfPoint();
+            c.getData().copyTo(data);
+            copy.add(new Contour(data));
+        }
+        return copy;
+    }
+
+    /**
+     * Advance to the next frame, wrapping around at the end
+     */
+    public void next() {
+        index = (index + 1) % rgba.size();
+    }
+
+    /**
+     * Get the number of canned frames
+     *
+     * @return Frame count
+     */
+    public int count() {
+        return rgba.size();
+    }
+
+    /**
+     * Get the current RGBA frame
+     *
+     * @return RGBA frame
+     */
+    public Mat rgba() {
+        return rgba.get(Math.max(index, 0));
+    }
+
+    /**
+     * Get the current grayscale frame
+     *
+     * @return Grayscale frame
+     */
+    public Mat gray() {
+        return gray.get(Math.max(index, 0));
+    }
+
+    /**
+     * Get an RGBA frame by index
+     *
+     * @param i Frame index
+     * @return RGBA frame
+     */
+    public Mat rgba(int i) {
+        return rgba.get(i);
+    }
+
+    /**
+     * Get a grayscale frame by index
+     *
+     * @param i Frame index
+     * @return Grayscale frame
+     */
+    public Mat gray(int i) {
+        return gray.get(i);
+    }
+
+    /**
+     * Release all frames
+     */
+    public void release() {
+        for (Mat m : rgba)
+            m.release();
+        for (Mat m : gray)
+            m.release();
+        rgba.clear();
+        gray.clear();
+    }
+}
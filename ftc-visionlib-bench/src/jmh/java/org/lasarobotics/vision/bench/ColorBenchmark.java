@@ -0,0 +1,48 @@
+/*
+ * Copyright (c) 2016 Arthur Pachachura, LASA Robotics, and contributors
+ * MIT licensed
+ */
+package org.lasarobotics.vision.bench;
+
+import org.lasarobotics.vision.util.color.Color;
+import org.lasarobotics.vision.util.color.ColorHSV;
+import org.lasarobotics.vision.util.color.ColorRGBA;
+import org.lasarobotics.vision.util.color.ColorSpace;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.opencv.core.Scalar;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks single color conversions
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ColorBenchmark {
+    private Color rgba;
+    private Color hsv;
+
+    @Setup
+    public void setup() {
+        BenchmarkFrames.loadNativeLibrary();
+        rgba = new ColorRGBA("#d81e1e");
+        hsv = new ColorHSV(0, 220, 216);
+    }
+
+    @Benchmark
+    public Scalar rgbaToHsv() {
+        return rgba.convertColorScalar(ColorSpace.HSV);
+    }
+
+    @Benchmark
+    public Scalar hsvToRgba() {
+        return hsv.convertColorScalar(ColorSpace.RGBA);
+    }
+}
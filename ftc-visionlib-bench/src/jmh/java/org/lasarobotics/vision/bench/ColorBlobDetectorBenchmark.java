@@ -0,0 +1,104 @@
+/*
+ * Copyright (c) 2016 Arthur Pachachura, LASA Robotics, and contributors
+ * MIT licensed
+ */
+package org.lasarobotics.vision.bench;
+
+import org.lasarobotics.vision.detection.ColorBlobDetector;
+import org.lasarobotics.vision.detection.MultiColorBlobDetector;
+import org.lasarobotics.vision.detection.objects.Contour;
+import org.lasarobotics.vision.detection.objects.Rectangle;
+import org.lasarobotics.vision.ftc.resq.Constants;
+import org.opencv.core.Point;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks color blob detection on a full frame and on a horizontal strip, and red and blue
+ * detection with separate and shared HSV conversions, and detection with a color lookup table
+ * <p/>
+ * Run with the gc profiler (enabled in build.gradle) to see the Java allocation per frame
+ * in gc.alloc.rate.norm.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ColorBlobDetectorBenchmark {
+    @Param({"320x240", "640x480", "960x720", "1200x1200"})
+    public String size;
+
+    private BenchmarkFrames frames;
+    private ColorBlobDetector detectorRed;
+    private ColorBlobDetector detectorBlue;
+    private ColorBlobDetector detectorRedLookup;
+    private MultiColorBlobDetector detector;
+    private Rectangle strip;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        frames = new BenchmarkFrames(size);
+        detectorRed = new ColorBlobDetector(Constants.COLOR_RED_LOWER, Constants.COLOR_RED_UPPER);
+        detectorBlue = new ColorBlobDetector(Constants.COLOR_BLUE_LOWER, Constants.COLOR_BLUE_UPPER);
+        detectorRedLookup = new ColorBlobDetector(Constants.COLOR_RED_LOWER, Constants.COLOR_RED_UPPER);
+        detectorRedLookup.setLookupTableEnabled(true);
+        //Build the table outside of the measurement
+        detectorRedLookup.process(frames.rgba());
+        detector = new MultiColorBlobDetector();
+        //Strip through the middle of the frame, at most 200px tall
+        double width = frames.rgba().cols();
+        double height = frames.rgba().rows();
+        strip = new Rectangle(new Point(width / 2, height / 2), width, Math.min(200, height));
+    }
+
+    @Setup(Level.Invocation)
+    public void nextFrame() {
+        frames.next();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        frames.release();
+    }
+
+    @Benchmark
+    public List<Contour> process() {
+        detectorRed.process(frames.rgba());
+        return detectorRed.getContours();
+    }
+
+    @Benchmark
+    public List<Contour> processLookupTable() {
+        detectorRedLookup.process(frames.rgba());
+        return detectorRedLookup.getContours();
+    }
+
+    @Benchmark
+    public List<Contour> processStrip() {
+        detectorRed.process(frames.rgba(), strip);
+        return detectorRed.getContours();
+    }
+
+    @Benchmark
+    public List<Contour> processRedBlue() {
+        detectorRed.process(frames.rgba());
+        detectorBlue.process(frames.rgba());
+        return detectorBlue.getContours();
+    }
+
+    @Benchmark
+    public List<Contour> processRedBlueShared() {
+        detector.process(frames.rgba(), detectorRed, detectorBlue);
+        return detectorBlue.getContours();
+    }
+}
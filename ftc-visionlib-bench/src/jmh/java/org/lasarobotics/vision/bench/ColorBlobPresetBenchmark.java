@@ -0,0 +1,63 @@
+/*
+ * Copyright (c) 2016 Arthur Pachachura, LASA Robotics, and contributors
+ * MIT licensed
+ */
+package org.lasarobotics.vision.bench;
+
+import org.lasarobotics.vision.detection.ColorBlobDetector;
+import org.lasarobotics.vision.detection.objects.Contour;
+import org.lasarobotics.vision.ftc.resq.Constants;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the latency of each color blob detection preset
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ColorBlobPresetBenchmark {
+    @Param({"320x240", "640x480", "960x720", "1200x1200"})
+    public String size;
+
+    @Param({"LOW_LATENCY", "BALANCED", "PRECISE"})
+    public String preset;
+
+    private BenchmarkFrames frames;
+    private ColorBlobDetector detectorRed;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        frames = new BenchmarkFrames(size);
+        detectorRed = new ColorBlobDetector(Constants.COLOR_RED_LOWER, Constants.COLOR_RED_UPPER);
+        detectorRed.setPreset(ColorBlobDetector.Preset.valueOf(preset));
+    }
+
+    @Setup(Level.Invocation)
+    public void nextFrame() {
+        frames.next();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        frames.release();
+        detectorRed.release();
+    }
+
+    @Benchmark
+    public List<Contour> process() {
+        detectorRed.process(frames.rgba());
+        return detectorRed.getContours();
+    }
+}
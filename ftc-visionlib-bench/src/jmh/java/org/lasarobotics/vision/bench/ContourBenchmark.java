@@ -0,0 +1,155 @@
+/*
+ * Copyright (c) 2016 Arthur Pachachura, LASA Robotics, and contributors
+ * MIT licensed
+ */
+package org.lasarobotics.vision.bench;
+
+import org.lasarobotics.vision.detection.ColorBlobDetector;
+import org.lasarobotics.vision.detection.objects.Contour;
+import org.lasarobotics.vision.ftc.resq.Constants;
+import org.opencv.core.MatOfPoint2f;
+import org.opencv.core.Point;
+import org.opencv.imgproc.Imgproc;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks contour property calculations on the contours found in canned frames
+ * <p/>
+ * Each property is measured on contours whose points were already copied to Java, on fresh
+ * contours that must copy their points first (as on every new frame), and through OpenCV.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ContourBenchmark {
+    @Param({"320x240", "640x480", "960x720", "1200x1200"})
+    public String size;
+
+    private final List<Contour> contours = new ArrayList<>();
+
+    @Setup(Level.Trial)
+    public void setup() {
+        BenchmarkFrames frames = new BenchmarkFrames(size);
+        ColorBlobDetector detectorRed = new ColorBlobDetector(Constants.COLOR_RED_LOWER, Constants.COLOR_RED_UPPER);
+        ColorBlobDetector detectorBlue = new ColorBlobDetector(Constants.COLOR_BLUE_LOWER, Constants.COLOR_BLUE_UPPER);
+        for (int i = 0; i < frames.count(); i++) {
+            detectorRed.process(frames.rgba(i));
+            contours.addAll(BenchmarkFrames.copyContours(detectorRed.getContours()));
+            detectorBlue.process(frames.rgba(i));
+            contours.addAll(BenchmarkFrames.copyContours(detectorBlue.getContours()));
+        }
+        frames.release();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        for (Contour c : contours)
+            c.getData().release();
+        contours.clear();
+    }
+
+    @Benchmark
+    public void centroid(Blackhole bh) {
+        for (Contour c : contours)
+            bh.consume(c.centroid());
+    }
+
+    @Benchmark
+    public void centroidFresh(Blackhole bh) {
+        for (Contour c : contours)
+            bh.consume(new Contour(c.getData()).centroid());
+    }
+
+    @Benchmark
+    public void centroidToArray(Blackhole bh) {
+        for (Contour c : contours)
+            bh.consume(centroidToArray(c.getData().toArray()));
+    }
+
+    /**
+     * Centroid computed on a point array copied out of the matrix, as Contour used to on every call
+     */
+    private static Point centroidToArray(Point[] points) {
+        double xSum = 0.0;
+        double ySum = 0.0;
+        double area = 0.0;
+        for (int i = 0; i < points.length - 1; i++) {
+            double signedArea = (points[i].x * points[i + 1].y) - (points[i + 1].x * points[i].y);
+            xSum += (points[i].x + points[i + 1].x) * signedArea;
+            ySum += (points[i].y + points[i + 1].y) * signedArea;
+            area += signedArea;
+        }
+        return area != 0 ? new Point(xSum / (3 * area), ySum / (3 * area)) : new Point();
+    }
+
+    @Benchmark
+    public void area(Blackhole bh) {
+        for (Contour c : contours)
+            bh.consume(c.area());
+    }
+
+    @Benchmark
+    public void areaFresh(Blackhole bh) {
+        for (Contour c : contours)
+            bh.consume(new Contour(c.getData()).area());
+    }
+
+    @Benchmark
+    public void areaNative(Blackhole bh) {
+        for (Contour c : contours)
+            bh.consume(Imgproc.contourArea(c.getData()));
+    }
+
+    @Benchmark
+    public void arcLength(Blackhole bh) {
+        for (Contour c : contours)
+            bh.consume(c.arcLength(true));
+    }
+
+    @Benchmark
+    public void arcLengthNative(Blackhole bh) {
+        for (Contour c : contours) {
+            MatOfPoint2f data = new MatOfPoint2f(c.getData().toArray());
+            bh.consume(Imgproc.arcLength(data, true));
+            data.release();
+        }
+    }
+
+    @Benchmark
+    public void isClosed(Blackhole bh) {
+        for (Contour c : contours)
+            bh.consume(c.isClosed());
+    }
+
+    @Benchmark
+    public void isClosedNative(Blackhole bh) {
+        for (Contour c : contours)
+            bh.consume(Imgproc.isContourConvex(c.getData()));
+    }
+
+    @Benchmark
+    public void bounds(Blackhole bh) {
+        for (Contour c : contours)
+            bh.consume(new Contour(c.getData()).getBoundingRect());
+    }
+
+    @Benchmark
+    public void boundsNative(Blackhole bh) {
+        for (Contour c : contours)
+            bh.consume(Imgproc.boundingRect(c.getData()));
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2016 Arthur Pachachura, LASA Robotics, and contributors
+ * MIT licensed
+ */
+package org.lasarobotics.vision.bench;
+
+import org.lasarobotics.vision.detection.EllipseFitter;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfPoint;
+import org.opencv.core.MatOfPoint2f;
+import org.opencv.imgproc.Imgproc;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks fitting ellipses to small contours in Java and with Imgproc.fitEllipse()
+ * <p/>
+ * Contours of 6 to 40 points are taken from the edges of the canned frames.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class EllipseFitBenchmark {
+    private static final int MIN_POINTS = 6;
+    private static final int MAX_POINTS = 40;
+
+    @Param({"640x480"})
+    public String size;
+
+    private final List<MatOfPoint> contours = new ArrayList<>();
+    private final List<int[]> points = new ArrayList<>();
+
+    @Setup
+    public void setup() {
+        BenchmarkFrames frames = new BenchmarkFrames(size);
+        Mat edges = new Mat();
+        Mat hierarchy = new Mat();
+        for (int i = 0; i < frames.count(); i++) {
+            Imgproc.Canny(frames.gray(i), edges, 5, 75, 3, true);
+            List<MatOfPoint> found = new ArrayList<>();
+            Imgproc.findContours(edges, found, hierarchy, Imgproc.CV_RETR_TREE, Imgproc.CHAIN_APPROX_TC89_KCOS);
+            for (MatOfPoint c : found) {
+                if (c.rows() >= MIN_POINTS && c.rows() <= MAX_POINTS) {
+                    int[] p = new int[c.rows() * 2];
+                    c.get(0, 0, p);
+                    contours.add(c);
+                    points.add(p);
+                } else {
+                    c.release();
+                }
+            }
+        }
+        edges.release();
+        hierarchy.release();
+        frames.release();
+    }
+
+    @TearDown
+    public void tearDown() {
+        for (MatOfPoint c : contours)
+            c.release();
+        contours.clear();
+        points.clear();
+    }
+
+    @Benchmark
+    public void fitJava(Blackhole bh) {
+        for (int i = 0; i < points.size(); i++)
+            bh.consume(EllipseFitter.fit(points.get(i), points.get(i).length / 2));
+    }
+
+    @Benchmark
+    public void fitNative(Blackhole bh) {
+        //As PrimitiveDetection.locateEllipses() copies each contour
+        for (MatOfPoint c : contours) {
+            MatOfPoint2f copy = new MatOfPoint2f(c.toArray());
+            bh.consume(Imgproc.fitEllipse(copy));
+            copy.release();
+        }
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2016 Arthur Pachachura, LASA Robotics, and contributors
+ * MIT licensed
+ */
+package org.lasarobotics.vision.bench;
+
+import org.lasarobotics.vision.detection.EllipseLocator;
+import org.lasarobotics.vision.detection.ParallelEllipseLocator;
+import org.lasarobotics.vision.detection.PrimitiveDetection;
+import org.lasarobotics.vision.detection.objects.Ellipse;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks ellipse and polygon location on a full grayscale frame
+ * <p/>
+ * Polygons are located with 3, 4 (locateRectangles) and 6 sides.
+ * Ellipses are located with both the static PrimitiveDetection path and a reused EllipseLocator,
+ * and in horizontal bands on one thread per processor with a ParallelEllipseLocator.
+ * Run with "-prof gc" to compare their allocation rates.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class PrimitiveDetectionBenchmark {
+    @Param({"320x240", "640x480", "960x720", "1200x1200"})
+    public String size;
+
+    private BenchmarkFrames frames;
+    private PrimitiveDetection primitiveDetection;
+    private EllipseLocator ellipseLocator;
+    private ParallelEllipseLocator parallelLocator;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        frames = new BenchmarkFrames(size);
+        primitiveDetection = new PrimitiveDetection();
+        ellipseLocator = new EllipseLocator();
+        parallelLocator = new ParallelEllipseLocator();
+    }
+
+    @Setup(Level.Invocation)
+    public void nextFrame() {
+        frames.next();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        frames.release();
+        ellipseLocator.release();
+        parallelLocator.release();
+    }
+
+    @Benchmark
+    public PrimitiveDetection.EllipseLocationResult locateEllipses() {
+        return PrimitiveDetection.locateEllipses(frames.gray());
+    }
+
+    @Benchmark
+    public List<Ellipse> locateEllipsesReused() {
+        return ellipseLocator.locateEllipses(frames.gray());
+    }
+
+    @Benchmark
+    public List<Ellipse> locateEllipsesNativeFit() {
+        return ellipseLocator.locateEllipses(frames.gray(), 0);
+    }
+
+    @Benchmark
+    public List<Ellipse> locateEllipsesParallel() {
+        return parallelLocator.locateEllipses(frames.gray());
+    }
+
+    @Benchmark
+    public PrimitiveDetection.RectangleLocationResult locateRectangles() {
+        return primitiveDetection.locateRectangles(frames.gray());
+    }
+
+    @Benchmark
+    public PrimitiveDetection.PolygonLocationResult locateTriangles() {
+        return primitiveDetection.locatePolygons(frames.gray(), 3, 1000, 0.5);
+    }
+
+    @Benchmark
+    public PrimitiveDetection.PolygonLocationResult locateHexagons() {
+        return primitiveDetection.locatePolygons(frames.gray(), 6, 1000, 0.5);
+    }
+}
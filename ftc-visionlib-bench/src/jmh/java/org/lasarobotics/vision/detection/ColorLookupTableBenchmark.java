@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2016 Arthur Pachachura, LASA Robotics, and contributors
+ * MIT licensed
+ */
+package org.lasarobotics.vision.detection;
+
+import org.lasarobotics.vision.bench.BenchmarkFrames;
+import org.lasarobotics.vision.ftc.resq.Constants;
+import org.opencv.core.Mat;
+import org.opencv.core.Scalar;
+import org.opencv.imgproc.Imgproc;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks thresholding a frame with a color lookup table against HSV conversion and inRange
+ * <p/>
+ * Only the step that ColorBlobDetector swaps out is measured, on frames already downsampled by the
+ * pyramid levels the detector would use. The red range wraps past a hue of 255, so inRange runs twice.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ColorLookupTableBenchmark {
+    @Param({"320x240", "640x480", "960x720", "1200x1200"})
+    public String size;
+
+    @Param({"0", "2"})
+    public int pyramidLevels;
+
+    private final List<Mat> downsampled = new ArrayList<>();
+    private final Mat hsv = new Mat();
+    private final Mat mask = new Mat();
+    private final Mat maskOne = new Mat();
+    private final Scalar tmpLow = new Scalar(0, 0, 0, 0);
+    private final Scalar tmpHigh = new Scalar(0, 0, 0, 0);
+    private ColorLookupTable lookupTable;
+    private int index = -1;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        BenchmarkFrames frames = new BenchmarkFrames(size);
+        for (int i = 0; i < frames.count(); i++) {
+            Mat pyrDown = new Mat();
+            Mat image = ColorBlobDetector.downsample(frames.rgba(i), pyrDown, pyramidLevels);
+            if (image != pyrDown)
+                image.copyTo(pyrDown);
+            downsampled.add(pyrDown);
+        }
+        frames.release();
+
+        lookupTable = new ColorLookupTable();
+        lookupTable.addRange(Constants.COLOR_RED_LOWER, Constants.COLOR_RED_UPPER);
+        lookupTable.release();
+    }
+
+    @Setup(Level.Invocation)
+    public void nextFrame() {
+        index = (index + 1) % downsampled.size();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        for (Mat m : downsampled)
+            m.release();
+        downsampled.clear();
+        hsv.release();
+        mask.release();
+        maskOne.release();
+    }
+
+    @Benchmark
+    public Mat maskInRange() {
+        Imgproc.cvtColor(downsampled.get(index), hsv, Imgproc.COLOR_RGB2HSV_FULL);
+        ColorBlobDetector.inRange(hsv, Constants.COLOR_RED_LOWER.getScalar(), Constants.COLOR_RED_UPPER.getScalar(),
+                mask, maskOne, tmpLow, tmpHigh);
+        return mask;
+    }
+
+    @Benchmark
+    public Mat maskLookupTable() {
+        lookupTable.mask(downsampled.get(index), mask, 0);
+        return mask;
+    }
+}
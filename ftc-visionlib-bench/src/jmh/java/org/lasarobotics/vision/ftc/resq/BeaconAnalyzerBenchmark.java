@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2016 Arthur Pachachura, LASA Robotics, and contributors
+ * MIT licensed
+ */
+package org.lasarobotics.vision.ftc.resq;
+
+import org.lasarobotics.vision.bench.BenchmarkFrames;
+import org.lasarobotics.vision.detection.ColorBlobDetector;
+import org.lasarobotics.vision.detection.EllipseLocator;
+import org.lasarobotics.vision.detection.EllipseTileCache;
+import org.lasarobotics.vision.detection.MultiColorBlobDetector;
+import org.lasarobotics.vision.detection.objects.Contour;
+import org.lasarobotics.vision.detection.objects.Rectangle;
+import org.lasarobotics.vision.util.ScreenOrientation;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks each beacon analysis method
+ * <p/>
+ * REALTIME and COMPLEX receive contours detected ahead of time, so only the analysis is measured.
+ * FAST runs its own color detection, so it includes the cost of a two-color MultiColorBlobDetector pass.
+ * COMPLEX is measured on changing frames and on a static view, where its ellipse cache is fully reused.
+ * ANYTIME runs through Beacon with a 25 ms deadline, including its own color detection.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class BeaconAnalyzerBenchmark {
+    @Param({"320x240", "640x480", "960x720", "1200x1200"})
+    public String size;
+
+    private final List<List<Contour>> contoursRed = new ArrayList<>();
+    private final List<List<Contour>> contoursBlue = new ArrayList<>();
+    private BenchmarkFrames frames;
+    private ColorBlobDetector detectorRed;
+    private ColorBlobDetector detectorBlue;
+    private MultiColorBlobDetector detector;
+    private EllipseLocator ellipseLocator;
+    private EllipseTileCache ellipseCache;
+    private EllipseTileCache staticEllipseCache;
+    private Beacon anytimeBeacon;
+    private Rectangle bounds;
+    private int index;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        frames = new BenchmarkFrames(size);
+        detectorRed = new ColorBlobDetector(Constants.COLOR_RED_LOWER, Constants.COLOR_RED_UPPER);
+        detectorBlue = new ColorBlobDetector(Constants.COLOR_BLUE_LOWER, Constants.COLOR_BLUE_UPPER);
+        detector = new MultiColorBlobDetector();
+        ellipseLocator = new EllipseLocator();
+        ellipseCache = new EllipseTileCache();
+        staticEllipseCache = new EllipseTileCache();
+        bounds = new Rectangle(BenchmarkFrames.parseSize(size));
+        anytimeBeacon = new Beacon(Beacon.AnalysisMethod.ANYTIME);
+        anytimeBeacon.setDeadline(25);
+
+        //Detect contours ahead of time for the methods that take them as input
+        for (int i = 0; i < frames.count(); i++) {
+            detectorRed.process(frames.rgba(i));
+            contoursRed.add(BenchmarkFrames.copyContours(detectorRed.getContours()));
+            detectorBlue.process(frames.rgba(i));
+            contoursBlue.add(BenchmarkFrames.copyContours(detectorBlue.getContours()));
+        }
+        index = -1;
+    }
+
+    @Setup(Level.Invocation)
+    public void nextFrame() {
+        frames.next();
+        index = (index + 1) % frames.count();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        frames.release();
+        for (List<Contour> list : contoursRed)
+            for (Contour c : list)
+                c.getData().release();
+        for (List<Contour> list : contoursBlue)
+            for (Contour c : list)
+                c.getData().release();
+        contoursRed.clear();
+        contoursBlue.clear();
+    }
+
+    @Benchmark
+    public Beacon.BeaconAnalysis realtime() {
+        return BeaconAnalyzer.analyze_REALTIME(contoursRed.get(index), contoursBlue.get(index),
+                frames.rgba(), ScreenOrientation.LANDSCAPE, false);
+    }
+
+    @Benchmark
+    public Beacon.BeaconAnalysis fast() {
+        return BeaconAnalyzer.analyze_FAST(detector, detectorRed, detectorBlue, ellipseLocator,
+                frames.rgba(), frames.gray(), ScreenOrientation.LANDSCAPE, bounds, null, false);
+    }
+
+    @Benchmark
+    public Beacon.BeaconAnalysis complex() {
+        return BeaconAnalyzer.analyze_COMPLEX(contoursRed.get(index), contoursBlue.get(index), ellipseCache,
+                frames.rgba(), frames.gray(), ScreenOrientation.LANDSCAPE, bounds, false);
+    }
+
+    @Benchmark
+    public Beacon.BeaconAnalysis complexStatic() {
+        return BeaconAnalyzer.analyze_COMPLEX(contoursRed.get(0), contoursBlue.get(0), staticEllipseCache,
+                frames.rgba(0), frames.gray(0), ScreenOrientation.LANDSCAPE, bounds, false);
+    }
+
+    @Benchmark
+    public Beacon.BeaconAnalysis anytime() {
+        return anytimeBeacon.analyzeFrame(frames.rgba(), frames.gray());
+    }
+}
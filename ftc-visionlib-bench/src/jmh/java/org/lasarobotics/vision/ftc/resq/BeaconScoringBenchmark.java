@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) 2016 Arthur Pachachura, LASA Robotics, and contributors
+ * MIT licensed
+ */
+package org.lasarobotics.vision.ftc.resq;
+
+import org.lasarobotics.vision.bench.BenchmarkFrames;
+import org.lasarobotics.vision.detection.ColorBlobDetector;
+import org.lasarobotics.vision.detection.PrimitiveDetection;
+import org.lasarobotics.vision.detection.objects.Contour;
+import org.lasarobotics.vision.detection.objects.Ellipse;
+import org.lasarobotics.vision.util.MathUtil;
+import org.opencv.core.MatOfPoint;
+import org.opencv.core.Size;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the contour-ellipse association loop of COMPLEX analysis
+ * <p/>
+ * Contours are wrapped again on every invocation, as they are on every frame, so cached measurements
+ * only help within one invocation. The uncached variant recomputes each centroid for every ellipse,
+ * as the association loop did before contour measurements were cached.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class BeaconScoringBenchmark {
+    @Param({"320x240", "640x480", "960x720", "1200x1200"})
+    public String size;
+
+    private final List<MatOfPoint> contoursRed = new ArrayList<>();
+    private final List<MatOfPoint> contoursBlue = new ArrayList<>();
+    private final List<BeaconScoringCOMPLEX.ScoredEllipse> ellipses = new ArrayList<>();
+    private BeaconScoringCOMPLEX scorer;
+    private Size imgSize;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        BenchmarkFrames frames = new BenchmarkFrames(size);
+        ColorBlobDetector detectorRed = new ColorBlobDetector(Constants.COLOR_RED_LOWER, Constants.COLOR_RED_UPPER);
+        ColorBlobDetector detectorBlue = new ColorBlobDetector(Constants.COLOR_BLUE_LOWER, Constants.COLOR_BLUE_UPPER);
+        for (int i = 0; i < frames.count(); i++) {
+            detectorRed.process(frames.rgba(i));
+            for (Contour c : BenchmarkFrames.copyContours(detectorRed.getContours()))
+                contoursRed.add(c.getData());
+            detectorBlue.process(frames.rgba(i));
+            for (Contour c : BenchmarkFrames.copyContours(detectorBlue.getContours()))
+                contoursBlue.add(c.getData());
+            for (Ellipse e : PrimitiveDetection.locateEllipses(frames.gray(i)).getEllipses())
+                ellipses.add(new BeaconScoringCOMPLEX.ScoredEllipse(e, 1));
+        }
+        imgSize = BenchmarkFrames.parseSize(size);
+        scorer = new BeaconScoringCOMPLEX(imgSize);
+        frames.release();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        for (MatOfPoint m : contoursRed)
+            m.release();
+        for (MatOfPoint m : contoursBlue)
+            m.release();
+        contoursRed.clear();
+        contoursBlue.clear();
+        ellipses.clear();
+    }
+
+    private static List<BeaconScoringCOMPLEX.ScoredContour> wrap(List<MatOfPoint> mats) {
+        List<BeaconScoringCOMPLEX.ScoredContour> contours = new ArrayList<>(mats.size());
+        for (MatOfPoint m : mats)
+            contours.add(new BeaconScoringCOMPLEX.ScoredContour(new Contour(m), 1));
+        return contours;
+    }
+
+    @Benchmark
+    public BeaconScoringCOMPLEX.MultiAssociatedContours associate() {
+        return scorer.scoreAssociations(wrap(contoursRed), wrap(contoursBlue), ellipses);
+    }
+
+    @Benchmark
+    public int associateUncached() {
+        return associateUncached(wrap(contoursRed)) + associateUncached(wrap(contoursBlue));
+    }
+
+    private int associateUncached(List<BeaconScoringCOMPLEX.ScoredContour> contours) {
+        int associated = 0;
+        for (BeaconScoringCOMPLEX.ScoredContour contour : contours) {
+            for (BeaconScoringCOMPLEX.ScoredEllipse ellipse : ellipses) {
+                //A fresh contour has nothing cached
+                Contour uncached = new Contour(contour.contour.getData());
+                if (ellipse.ellipse.isInside(contour.contour) ||
+                        (MathUtil.distance(ellipse.ellipse.center(), uncached.centroid()) <=
+                                Constants.ASSOCIATION_MAX_DISTANCE * imgSize.width))
+                    associated++;
+            }
+        }
+        return associated;
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2016 Arthur Pachachura, LASA Robotics, and contributors
+ * MIT licensed
+ */
+package org.lasarobotics.vision.ftc.resq;
+
+import org.lasarobotics.vision.bench.BenchmarkFrames;
+import org.lasarobotics.vision.detection.ColorBlobDetector;
+import org.lasarobotics.vision.detection.objects.Contour;
+import org.lasarobotics.vision.detection.objects.Ellipse;
+import org.lasarobotics.vision.util.MathUtil;
+import org.opencv.core.Point;
+import org.opencv.core.RotatedRect;
+import org.opencv.core.Size;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks contour-ellipse association as the number of ellipses grows
+ * <p/>
+ * Contours come from the 640x480 canned frames. Ellipses are scattered at random (with a fixed seed)
+ * over the frame, as on a cluttered field. The grid-indexed association is compared with testing
+ * every ellipse against every contour.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class EllipseAssociationBenchmark {
+    private static final String SIZE = "640x480";
+
+    @Param({"10", "100", "500", "2000"})
+    public int ellipseCount;
+
+    private final List<BeaconScoringCOMPLEX.ScoredContour> contours = new ArrayList<>();
+    private final List<BeaconScoringCOMPLEX.ScoredEllipse> ellipses = new ArrayList<>();
+    private BeaconScoringCOMPLEX scorer;
+    private Size imgSize;
+
+    @Setup
+    public void setup() {
+        BenchmarkFrames frames = new BenchmarkFrames(SIZE);
+        ColorBlobDetector detectorRed = new ColorBlobDetector(Constants.COLOR_RED_LOWER, Constants.COLOR_RED_UPPER);
+        ColorBlobDetector detectorBlue = new ColorBlobDetector(Constants.COLOR_BLUE_LOWER, Constants.COLOR_BLUE_UPPER);
+        for (int i = 0; i < frames.count(); i++) {
+            detectorRed.process(frames.rgba(i));
+            for (Contour c : BenchmarkFrames.copyContours(detectorRed.getContours()))
+                contours.add(new BeaconScoringCOMPLEX.ScoredContour(c, 1));
+            detectorBlue.process(frames.rgba(i));
+            for (Contour c : BenchmarkFrames.copyContours(detectorBlue.getContours()))
+                contours.add(new BeaconScoringCOMPLEX.ScoredContour(c, 1));
+        }
+        frames.release();
+
+        imgSize = BenchmarkFrames.parseSize(SIZE);
+        scorer = new BeaconScoringCOMPLEX(imgSize);
+        Random random = new Random(0);
+        for (int i = 0; i < ellipseCount; i++) {
+            Point center = new Point(random.nextDouble() * imgSize.width, random.nextDouble() * imgSize.height);
+            Size size = new Size(4 + random.nextDouble() * 40, 4 + random.nextDouble() * 40);
+            ellipses.add(new BeaconScoringCOMPLEX.ScoredEllipse(
+                    new Ellipse(new RotatedRect(center, size, random.nextDouble() * 180)), random.nextDouble()));
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        for (BeaconScoringCOMPLEX.ScoredContour c : contours)
+            c.contour.getData().release();
+        contours.clear();
+        ellipses.clear();
+    }
+
+    @Benchmark
+    public List<BeaconScoringCOMPLEX.AssociatedContour> grid() {
+        return scorer.associate(contours, ellipses);
+    }
+
+    @Benchmark
+    public int bruteForce() {
+        double maxDistance = Constants.ASSOCIATION_MAX_DISTANCE * imgSize.width;
+        int associated = 0;
+        for (BeaconScoringCOMPLEX.ScoredContour contour : contours)
+            for (BeaconScoringCOMPLEX.ScoredEllipse ellipse : ellipses)
+                if (ellipse.ellipse.isInside(contour.contour) ||
+                        (MathUtil.distance(ellipse.ellipse.center(), contour.contour.centroid()) <= maxDistance))
+                    associated++;
+        return associated;
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2016 Arthur Pachachura, LASA Robotics, and contributors
+ * MIT licensed
+ */
+package org.lasarobotics.vision.detection.objects;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.lasarobotics.vision.detection.ColorBlobDetector;
+import org.lasarobotics.vision.frame.SyntheticFrameSource;
+import org.lasarobotics.vision.ftc.resq.Constants;
+import org.opencv.core.Core;
+import org.opencv.core.MatOfPoint;
+import org.opencv.core.Point;
+import org.opencv.imgproc.Imgproc;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that Contour.isClosed() agrees with Imgproc.isContourConvex()
+ * <p/>
+ * Contours come from the synthetic benchmark frames at every detection preset, including the
+ * unapproximated contours of PRECISE, and from random polygons with collinear and repeated points.
+ */
+public class ContourConvexityTest {
+    private static final int RANDOM_CONTOURS = 2000;
+
+    @BeforeClass
+    public static void loadNativeLibrary() {
+        System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+    }
+
+    private static void assertParity(MatOfPoint data) {
+        boolean expected = Imgproc.isContourConvex(data);
+        assertEquals(Arrays.toString(data.toArray()), expected, new Contour(data).isClosed());
+    }
+
+    @Test
+    public void matchesOpenCVOnDetectedContours() {
+        SyntheticFrameSource source = new SyntheticFrameSource(640, 480, 16, new SyntheticFrameSource.BeaconGenerator());
+        List<ColorBlobDetector> detectors = new ArrayList<>();
+        for (ColorBlobDetector.Preset preset : ColorBlobDetector.Preset.values()) {
+            ColorBlobDetector red = new ColorBlobDetector(Constants.COLOR_RED_LOWER, Constants.COLOR_RED_UPPER);
+            ColorBlobDetector blue = new ColorBlobDetector(Constants.COLOR_BLUE_LOWER, Constants.COLOR_BLUE_UPPER);
+            red.setPreset(preset);
+            blue.setPreset(preset);
+            detectors.add(red);
+            detectors.add(blue);
+        }
+
+        source.open();
+        while (source.grab()) {
+            for (ColorBlobDetector detector : detectors) {
+                detector.process(source.rgba());
+                for (Contour c : detector.getContours())
+                    assertParity(c.getData());
+            }
+        }
+        source.close();
+        for (ColorBlobDetector detector : detectors)
+            detector.release();
+    }
+
+    @Test
+    public void matchesOpenCVOnRandomPolygons() {
+        Random random = new Random(42);
+        for (int i = 0; i < RANDOM_CONTOURS; i++) {
+            //Few points on a small grid, so collinear, repeated and degenerate contours are common
+            int count = 1 + random.nextInt(8);
+            int range = 2 + random.nextInt(6);
+            Point[] points = new Point[count];
+            for (int k = 0; k < count; k++)
+                points[k] = new Point(random.nextInt(range), random.nextInt(range));
+            MatOfPoint data = new MatOfPoint(points);
+            assertParity(data);
+            data.release();
+        }
+    }
+
+    @Test
+    public void matchesOpenCVOnRegularPolygons() {
+        for (int sides = 3; sides <= 32; sides++) {
+            Point[] points = new Point[sides];
+            for (int k = 0; k < sides; k++) {
+                double angle = 2 * Math.PI * k / sides;
+                points[k] = new Point(Math.round(100 + 80 * Math.cos(angle)), Math.round(100 + 80 * Math.sin(angle)));
+            }
+            MatOfPoint data = new MatOfPoint(points);
+            assertParity(data);
+            data.release();
+        }
+    }
+}
@@ -10,6 +10,7 @@
 package org.lasarobotics.vision.detection;
 
 import org.lasarobotics.vision.detection.objects.Contour;
+import org.lasarobotics.vision.detection.objects.Rectangle;
 import org.lasarobotics.vision.image.Drawing;
 import org.lasarobotics.vision.util.color.Color;
 import org.lasarobotics.vision.util.color.ColorHSV;
@@ -17,7 +18,9 @@ import org.lasarobotics.vision.util.color.ColorSpace;
 import org.opencv.core.Core;
 import org.opencv.core.Mat;
 import org.opencv.core.MatOfPoint;
+import org.opencv.core.Rect;
 import org.opencv.core.Scalar;
+import org.opencv.core.Size;
 import org.opencv.imgproc.Imgproc;
 
 import java.util.ArrayList;
@@ -25,10 +28,19 @@ import java.util.List;
 
 /**
  * Implements blob (regional) detection based on color
+ * <p/>
+ * Buffers are reused between frames, and the native memory of each frame's contours is released
+ * when the next frame is processed. Contours are therefore only valid until the next call to process().
  */
 public class ColorBlobDetector {
 
+    /**
+     * Maximum number of pyramid levels
+     */
+    public static final int MAX_PYRAMID_LEVELS = 3;
+
     private final List<Contour> contours = new ArrayList<>();
+    private final List<MatOfPoint> mContourMats = new ArrayList<>();
     // Cache
     private final Mat mPyrDownMat = new Mat();
     private final Mat mHsvMat = new Mat();
@@ -36,6 +48,20 @@ public class ColorBlobDetector {
     private final Mat mMask = new Mat();
     private final Mat mDilatedMask = new Mat();
     private final Mat mHierarchy = new Mat();
+    private final Scalar mLower = new Scalar(0, 0, 0, 0);
+    private final Scalar mUpper = new Scalar(0, 0, 0, 0);
+    private final Scalar mScale = new Scalar(1, 1);
+    private final Scalar mOffset = new Scalar(0, 0);
+    private Mat mKernel = new Mat();
+    //Number of times the image is halved before processing
+    private int pyramidLevels = 2;
+    //Size of the square dilation kernel, or 0 to disable dilation
+    private int kernelSize = 3;
+    //Contour approximation method
+    private int approximation = Imgproc.CHAIN_APPROX_SIMPLE;
+    //Lookup table replacing the HSV conversion, built when first needed
+    private boolean useLookupTable = false;
+    private ColorLookupTable lookupTable = null;
     //Lower bound for range checking
     private ColorHSV lowerBound = new ColorHSV(0, 0, 0);
     //Upper bound for range checking
@@ -155,6 +181,118 @@ public class ColorBlobDetector {
         this.colorRadius = radius.getScalar();
         //Update the bounds again
         setColor(color);
+        lookupTable = null;
+    }
+
+    /**
+     * Search for colors between two bounds, keeping the detector's buffers and settings
+     *
+     * @param colorMinimum Minimum bound in HSV
+     * @param colorMaximum Maximum bound in HSV
+     */
+    public void setColorRange(ColorHSV colorMinimum, ColorHSV colorMaximum) {
+        setColorRadius(colorMinimum, colorMaximum);
+        lookupTable = null;
+    }
+
+    /**
+     * Returns whether a color lookup table is used instead of converting the image to HSV
+     *
+     * @return True if a lookup table is used
+     */
+    public boolean isLookupTableEnabled() {
+        return useLookupTable;
+    }
+
+    /**
+     * Set whether to classify pixels with a precomputed color lookup table instead of converting
+     * the image to HSV. The table quantizes colors slightly, so a few pixels at the edges of the
+     * color range may be classified differently.
+     * <p/>
+     * The table is applied in Java, which copies the image out of and back into native memory, so it
+     * can be slower than the native conversion, especially at low pyramid levels. Measure both with
+     * ColorLookupTableBenchmark on the target device before enabling it.
+     *
+     * @param enabled True to use a lookup table, false to convert to HSV (default)
+     */
+    public void setLookupTableEnabled(boolean enabled) {
+        this.useLookupTable = enabled;
+    }
+
+    /**
+     * Apply a speed/accuracy preset, setting the pyramid levels, dilation kernel and contour approximation
+     * Must be called on the thread that processes images, or while no image is being processed.
+     *
+     * @param preset Preset to apply
+     */
+    public void setPreset(Preset preset) {
+        setPyramidLevels(preset.pyramidLevels);
+        setDilationKernelSize(preset.kernelSize);
+        setContourApproximation(preset.approximation);
+    }
+
+    /**
+     * Get the number of pyramid levels
+     *
+     * @return Number of times the image is halved before processing
+     */
+    public int getPyramidLevels() {
+        return pyramidLevels;
+    }
+
+    /**
+     * Set the number of pyramid levels, trading accuracy for speed
+     * Each level halves the image width and height. Far away objects may need 0 levels
+     * (full resolution), while near objects can be found at 3 levels (1/8 resolution).
+     *
+     * @param levels Number of times to halve the image, from 0 to 3 (default 2)
+     */
+    public void setPyramidLevels(int levels) {
+        if (levels < 0 || levels > MAX_PYRAMID_LEVELS)
+            throw new IllegalArgumentException("Pyramid levels must be between 0 and " + MAX_PYRAMID_LEVELS);
+        this.pyramidLevels = levels;
+    }
+
+    /**
+     * Get the size of the dilation kernel
+     *
+     * @return Kernel size, or 0 if dilation is disabled
+     */
+    public int getDilationKernelSize() {
+        return kernelSize;
+    }
+
+    /**
+     * Set the size of the square kernel used to dilate the color mask
+     * The previous kernel is released, so this must not be called while an image is being processed.
+     *
+     * @param size Kernel size, or 0 to disable dilation (default 3)
+     */
+    public void setDilationKernelSize(int size) {
+        if (size < 0)
+            throw new IllegalArgumentException("Kernel size must not be negative");
+        this.kernelSize = size;
+        mKernel.release();
+        mKernel = (size > 0) ? Imgproc.getStructuringElement(Imgproc.MORPH_RECT, new Size(size, size)) : new Mat();
+    }
+
+    /**
+     * Get the contour approximation method
+     *
+     * @return Contour approximation method, one of Imgproc.CHAIN_APPROX_*
+     */
+    public int getContourApproximation() {
+        return approximation;
+    }
+
+    /**
+     * Set the contour approximation method
+     *
+     * @param approximation Contour approximation method, one of Imgproc.CHAIN_APPROX_*
+     *                      (default CHAIN_APPROX_SIMPLE)
+     */
+    public void setContourApproximation(int approximation) {
+        this.approximation = approximation;
     }
 
     /**
@@ -164,48 +302,206 @@ public class ColorBlobDetector {
      * @param rgbaImage An RGBA image matrix
      */
     public void process(Mat rgbaImage) {
-        Imgproc.pyrDown(rgbaImage, mPyrDownMat);
-        Imgproc.pyrDown(mPyrDownMat, mPyrDownMat);
+        process(rgbaImage, null);
+    }
 
-        Imgproc.cvtColor(mPyrDownMat, mHsvMat, Imgproc.COLOR_RGB2HSV_FULL);
+    /**
+     * Process a region of an rgba image. The results can be drawn on retrieved later.
+     * Only the region is processed, but contours are returned in full-frame coordinates.
+     * This method does not modify the image.
+     *
+     * @param rgbaImage An RGBA image matrix
+     * @param roi       Region of interest, which is clipped to the image, or null for the whole image
+     */
+    public void process(Mat rgbaImage, Rectangle roi) {
+        Rect region = getRegion(rgbaImage, roi, pyramidLevels);
+        if (region == null) {
+            clearContours();
+            return;
+        }
 
+        Mat image = getRegionMat(rgbaImage, region);
+        Mat downsampled = downsample(image, mPyrDownMat, pyramidLevels);
+        if (!useLookupTable)
+            Imgproc.cvtColor(downsampled, mHsvMat, Imgproc.COLOR_RGB2HSV_FULL);
+
+        processDownsampled(downsampled, mHsvMat, region.x, region.y);
+        if (image != rgbaImage)
+            image.release();
+    }
+
+    /**
+     * Clip a region of interest to an image
+     *
+     * @param img    Image
+     * @param roi    Region of interest, or null for the whole image
+     * @param levels Number of pyramid levels
+     * @return Clipped region, or null if the region is too small to process
+     */
+    static Rect getRegion(Mat img, Rectangle roi, int levels) {
+        if (roi == null)
+            return new Rect(0, 0, img.cols(), img.rows());
+
+        Rect r = roi.getBoundingRect();
+        int left = Math.max(r.x, 0);
+        int top = Math.max(r.y, 0);
+        int right = Math.min(r.x + r.width, img.cols());
+        int bottom = Math.min(r.y + r.height, img.rows());
+
+        //Nothing to do if the region is empty or too small to downsample
+        if (right - left < (1 << levels) || bottom - top < (1 << levels))
+            return null;
+        return new Rect(left, top, right - left, bottom - top);
+    }
+
+    /**
+     * Get a region of an image, without copying
+     *
+     * @param img    Image
+     * @param region Region returned by getRegion()
+     * @return The image itself if the region covers it, otherwise a submat that must be released
+     */
+    static Mat getRegionMat(Mat img, Rect region) {
+        if (region.x == 0 && region.y == 0 && region.width == img.cols() && region.height == img.rows())
+            return img;
+        return img.submat(region);
+    }
+
+    /**
+     * Downsample an rgba image
+     *
+     * @param rgbaImage An RGBA image matrix
+     * @param pyrDown   Temporary matrix for the downsampled image
+     * @param levels    Number of pyramid levels
+     * @return The downsampled image, which is rgbaImage itself if levels is 0
+     */
+    static Mat downsample(Mat rgbaImage, Mat pyrDown, int levels) {
+        if (levels == 0)
+            return rgbaImage;
+
+        Imgproc.pyrDown(rgbaImage, pyrDown);
+        for (int i = 1; i < levels; i++)
+            Imgproc.pyrDown(pyrDown, pyrDown);
+        return pyrDown;
+    }
+
+    /**
+     * Threshold an HSV image, allowing the hue range to wrap past 255
+     *
+     * @param hsv     HSV image
+     * @param lower   Lower bound
+     * @param upper   Upper bound, with a hue that may be greater than 255
+     * @param mask    Output mask
+     * @param maskOne Temporary mask
+     * @param tmpLow  Temporary scalar
+     * @param tmpHigh Temporary scalar
+     */
+    static void inRange(Mat hsv, Scalar lower, Scalar upper, Mat mask, Mat maskOne, Scalar tmpLow, Scalar tmpHigh) {
         //Test whether we need two inRange operations (only if the hue crosses over 255)
-        if (upperBound.getScalar().val[0] <= 255) {
-            Core.inRange(mHsvMat, lowerBound.getScalar(), upperBound.getScalar(), mMask);
+        if (upper.val[0] <= 255) {
+            Core.inRange(hsv, lower, upper, mask);
         } else {
             //We need two operations - we're going to OR the masks together
-            Scalar lower = lowerBound.getScalar().clone();
-            Scalar upper = upperBound.getScalar().clone();
-            while (upper.val[0] > 255)
-                upper.val[0] -= 255;
-            double tmp = lower.val[0];
-            lower.val[0] = 0;
+            System.arraycopy(lower.val, 0, tmpLow.val, 0, tmpLow.val.length);
+            System.arraycopy(upper.val, 0, tmpHigh.val, 0, tmpHigh.val.length);
+            while (tmpHigh.val[0] > 255)
+                tmpHigh.val[0] -= 255;
+            double tmp = tmpLow.val[0];
+            tmpLow.val[0] = 0;
             //Mask 1 - from 0 to n
-            Core.inRange(mHsvMat, lower, upper, mMaskOne);
+            Core.inRange(hsv, tmpLow, tmpHigh, maskOne);
             //Mask 2 - from 255-n to 255
-            lower.val[0] = tmp;
-            upper.val[0] = 255;
+            tmpLow.val[0] = tmp;
+            tmpHigh.val[0] = 255;
 
-            Core.inRange(mHsvMat, lower, upper, mMask);
+            Core.inRange(hsv, tmpLow, tmpHigh, mask);
             //OR the two masks
-            Core.bitwise_or(mMaskOne, mMask, mMask);
+            Core.bitwise_or(maskOne, mask, mask);
         }
+    }
 
-        //Dilate (blur) the mask to decrease processing power
-        Imgproc.dilate(mMask, mDilatedMask, new Mat());
+    /**
+     * Returns whether processDownsampled() needs the HSV image
+     *
+     * @return True if the HSV image is needed
+     */
+    boolean needsHsv() {
+        return !useLookupTable;
+    }
+
+    /**
+     * Find contours in a downsampled image
+     *
+     * @param rgba    RGBA image from downsample(), downsampled by this detector's pyramid levels
+     * @param hsv     The same image converted to HSV, unused if a lookup table is enabled
+     * @param offsetX X offset of the region in the original image
+     * @param offsetY Y offset of the region in the original image
+     */
+    void processDownsampled(Mat rgba, Mat hsv, int offsetX, int offsetY) {
+        if (useLookupTable) {
+            if (lookupTable == null) {
+                lookupTable = new ColorLookupTable();
+                lookupTable.addRange(lowerBound, upperBound);
+                lookupTable.release();
+            }
+            lookupTable.mask(rgba, mMask, 0);
+        } else {
+            inRange(hsv, lowerBound.getScalar(), upperBound.getScalar(), mMask, mMaskOne, mLower, mUpper);
+        }
 
-        List<MatOfPoint> contourListTemp = new ArrayList<>();
+        //Dilate (blur) the mask to decrease processing power
+        Mat mask = mMask;
+        if (kernelSize > 0) {
+            Imgproc.dilate(mMask, mDilatedMask, mKernel);
+            mask = mDilatedMask;
+        }
 
-        Imgproc.findContours(mDilatedMask, contourListTemp, mHierarchy, Imgproc.RETR_EXTERNAL, Imgproc.CHAIN_APPROX_SIMPLE);
+        //Free the previous frame's contours before finding new ones
+        clearContours();
+        Imgproc.findContours(mask, mContourMats, mHierarchy, Imgproc.RETR_EXTERNAL, approximation);
 
         // Filter contours by area and resize to fit the original image size
-        contours.clear();
-        for (MatOfPoint c : contourListTemp) {
-            Core.multiply(c, new Scalar(4, 4), c);
+        int factor = 1 << pyramidLevels;
+        mScale.val[0] = factor;
+        mScale.val[1] = factor;
+        mOffset.val[0] = offsetX;
+        mOffset.val[1] = offsetY;
+        boolean hasOffset = offsetX != 0 || offsetY != 0;
+        for (int i = 0; i < mContourMats.size(); i++) {
+            MatOfPoint c = mContourMats.get(i);
+            if (factor > 1)
+                Core.multiply(c, mScale, c);
+            //Translate the contour from the region back into the image
+            if (hasOffset)
+                Core.add(c, mOffset, c);
             contours.add(new Contour(c));
         }
     }
 
+    /**
+     * Release the native memory of the current contours and clear them
+     */
+    void clearContours() {
+        for (int i = 0; i < mContourMats.size(); i++)
+            mContourMats.get(i).release();
+        mContourMats.clear();
+        contours.clear();
+    }
+
+    /**
+     * Release all native memory held by the detector
+     * The detector may still be used afterwards.
+     */
+    public void release() {
+        clearContours();
+        mPyrDownMat.release();
+        mHsvMat.release();
+        mMaskOne.release();
+        mMask.release();
+        mDilatedMask.release();
+        mHierarchy.release();
+    }
+
     /**
      * Draw contours matched by the blob detector
      *
@@ -229,10 +525,39 @@ public class ColorBlobDetector {
 
     /**
      * Get a list of contours after running process()
+     * The contours are only valid until the next call to process().
      *
      * @return Processed list of contours
      */
     public List<Contour> getContours() {
         return contours;
     }
+
+    /**
+     * Speed/accuracy presets for color blob detection
+     */
+    public enum Preset {
+        /**
+         * 1/8 resolution - fastest, but only finds large (near) blobs
+         */
+        LOW_LATENCY(3, 3, Imgproc.CHAIN_APPROX_SIMPLE),
+        /**
+         * 1/4 resolution (default)
+         */
+        BALANCED(2, 3, Imgproc.CHAIN_APPROX_SIMPLE),
+        /**
+         * Full resolution with exact contours - slowest, but finds small (far) blobs
+         */
+        PRECISE(0, 3, Imgproc.CHAIN_APPROX_NONE);
+
+        final int pyramidLevels;
+        final int kernelSize;
+        final int approximation;
+
+        Preset(int pyramidLevels, int kernelSize, int approximation) {
+            this.pyramidLevels = pyramidLevels;
+            this.kernelSize = kernelSize;
+            this.approximation = approximation;
+        }
+    }
 }
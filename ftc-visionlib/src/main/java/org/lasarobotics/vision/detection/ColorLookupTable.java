@@ -0,0 +1,161 @@
+/*
+ * Copyright (c) 2016 Arthur Pachachura, LASA Robotics, and contributors
+ * MIT licensed
+ */
+package org.lasarobotics.vision.detection;
+
+import org.lasarobotics.vision.util.color.ColorHSV;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Scalar;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * Classifies RGB(A) pixels into HSV color ranges using a precomputed lookup table
+ * <p/>
+ * The RGB cube is quantized into 32x32x32 cells. Each cell stores one bit per color range,
+ * computed once from the HSV value of the cell center. Classifying an image is then a single
+ * table lookup per pixel, with no HSV conversion, and hue ranges that wrap past 255 cost nothing extra.
+ */
+public class ColorLookupTable {
+    /**
+     * Maximum number of color ranges in one table
+     */
+    public static final int MAX_RANGES = 8;
+
+    private static final int BITS = 5;
+    private static final int SHIFT = 8 - BITS;
+    private static final int CELLS = 1 << (3 * BITS);
+
+    private final byte[] table = new byte[CELLS];
+    private Mat cellsHsv = null;
+    private int ranges = 0;
+
+    //Buffers reused between frames
+    private byte[] pixels = new byte[0];
+    private byte[] output = new byte[0];
+
+    private static int index(int r, int g, int b) {
+        return ((r & 0xFF) >> SHIFT) << (2 * BITS) | ((g & 0xFF) >> SHIFT) << BITS | ((b & 0xFF) >> SHIFT);
+    }
+
+    /**
+     * Add an HSV color range to the table
+     * Hue bounds above 255 wrap around, as in ColorBlobDetector.
+     *
+     * @param lower Lower bound in HSV
+     * @param upper Upper bound in HSV
+     * @return Index of the range, used to select it in mask()
+     */
+    public int addRange(ColorHSV lower, ColorHSV upper) {
+        if (ranges >= MAX_RANGES)
+            throw new IllegalStateException("A lookup table holds at most " + MAX_RANGES + " ranges");
+
+        if (cellsHsv == null)
+            cellsHsv = createCells();
+
+        //Threshold the cell centers exactly like a frame
+        Mat mask = new Mat();
+        Mat maskOne = new Mat();
+        ColorBlobDetector.inRange(cellsHsv, lower.getScalar(), upper.getScalar(), mask, maskOne,
+                new Scalar(0, 0, 0, 0), new Scalar(0, 0, 0, 0));
+        byte[] matches = new byte[CELLS];
+        mask.get(0, 0, matches);
+        mask.release();
+        maskOne.release();
+
+        int bit = 1 << ranges;
+        for (int i = 0; i < CELLS; i++)
+            if (matches[i] != 0)
+                table[i] |= bit;
+        return ranges++;
+    }
+
+    /**
+     * Get the number of color ranges in the table
+     *
+     * @return Number of color ranges
+     */
+    public int getRangeCount() {
+        return ranges;
+    }
+
+    /**
+     * Create a single-column HSV image containing the center color of every cell
+     */
+    private static Mat createCells() {
+        byte[] rgb = new byte[CELLS * 3];
+        int half = 1 << (SHIFT - 1);
+        for (int r = 0; r < (1 << BITS); r++)
+            for (int g = 0; g < (1 << BITS); g++)
+                for (int b = 0; b < (1 << BITS); b++) {
+                    int i = 3 * ((r << (2 * BITS)) | (g << BITS) | b);
+                    rgb[i] = (byte) ((r << SHIFT) + half);
+                    rgb[i + 1] = (byte) ((g << SHIFT) + half);
+                    rgb[i + 2] = (byte) ((b << SHIFT) + half);
+                }
+
+        Mat cells = new Mat(CELLS, 1, CvType.CV_8UC3);
+        cells.put(0, 0, rgb);
+        Imgproc.cvtColor(cells, cells, Imgproc.COLOR_RGB2HSV_FULL);
+        return cells;
+    }
+
+    /**
+     * Create a binary mask of the pixels matching one color range
+     *
+     * @param rgba  RGB or RGBA image (8 bits per channel)
+     * @param mask  Output mask, 255 where the pixel matches and 0 elsewhere
+     * @param range Index of the range returned by addRange()
+     */
+    public void mask(Mat rgba, Mat mask, int range) {
+        if (range < 0 || range >= ranges)
+            throw new IllegalArgumentException("No such range: " + range);
+        apply(rgba, mask, 1 << range);
+    }
+
+    /**
+     * Classify every pixel, writing a bit for each matching range
+     *
+     * @param rgba   RGB or RGBA image (8 bits per channel)
+     * @param labels Output image, where bit n is set if the pixel matches range n
+     */
+    public void classify(Mat rgba, Mat labels) {
+        apply(rgba, labels, 0);
+    }
+
+    private void apply(Mat rgba, Mat dst, int bit) {
+        int channels = rgba.channels();
+        if (rgba.depth() != CvType.CV_8U || channels < 3)
+            throw new IllegalArgumentException("Image must be RGB or RGBA with 8 bits per channel");
+
+        int count = rgba.rows() * rgba.cols();
+        if (pixels.length < count * channels || pixels.length % channels != 0)
+            pixels = new byte[count * channels];
+        if (output.length < count)
+            output = new byte[count];
+
+        rgba.get(0, 0, pixels);
+        if (bit == 0) {
+            for (int i = 0, p = 0; i < count; i++, p += channels)
+                output[i] = table[index(pixels[p], pixels[p + 1], pixels[p + 2])];
+        } else {
+            for (int i = 0, p = 0; i < count; i++, p += channels)
+                output[i] = (table[index(pixels[p], pixels[p + 1], pixels[p + 2])] & bit) != 0 ? (byte) 255 : 0;
+        }
+
+        dst.create(rgba.rows(), rgba.cols(), CvType.CV_8UC1);
+        dst.put(0, 0, output);
+    }
+
+    /**
+     * Release the native memory used to build the table
+     * The table can still be used, and is rebuilt if more ranges are added.
+     */
+    public void release() {
+        if (cellsHsv != null) {
+            cellsHsv.release();
+            cellsHsv = null;
+        }
+    }
+}
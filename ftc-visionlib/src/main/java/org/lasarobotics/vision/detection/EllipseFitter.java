@@ -0,0 +1,235 @@
+/*
+ * Copyright (c) 2016 Arthur Pachachura, LASA Robotics, and contributors
+ * MIT licensed
+ */
+package org.lasarobotics.vision.detection;
+
+import org.opencv.core.Point;
+import org.opencv.core.RotatedRect;
+import org.opencv.core.Size;
+
+/**
+ * Direct least-squares ellipse fitting in Java
+ * <p/>
+ * Implements Fitzgibbon's method in the numerically stable form of Halir and Flusser. For small
+ * contours this is faster than Imgproc.fitEllipse(), which must first copy the points to native memory.
+ * Only core OpenCV value classes are used, so no native library is needed.
+ * The result follows Imgproc.fitEllipse(): the width is the minor axis and the angle is the direction
+ * of the width in degrees, from 0 to 180.
+ */
+public final class EllipseFitter {
+    /**
+     * Minimum number of points to fit an ellipse
+     */
+    public static final int MIN_POINTS = 5;
+
+    /**
+     * Suppresses constructor for noninstantiability
+     */
+    private EllipseFitter() {
+        throw new AssertionError();
+    }
+
+    /**
+     * Fit an ellipse to a set of points
+     *
+     * @param points Interleaved x and y coordinates, as stored in a MatOfPoint
+     * @param count  Number of points to use
+     * @return Rotated rectangle bounding the ellipse, or null if the points do not describe an ellipse
+     */
+    public static RotatedRect fit(int[] points, int count) {
+        if (count < MIN_POINTS || points.length < count * 2)
+            return null;
+
+        //Center and scale the points to keep the scatter matrices well conditioned
+        double meanX = 0;
+        double meanY = 0;
+        for (int i = 0; i < count * 2; i += 2) {
+            meanX += points[i];
+            meanY += points[i + 1];
+        }
+        meanX /= count;
+        meanY /= count;
+        double scale = 0;
+        for (int i = 0; i < count * 2; i += 2)
+            scale += Math.abs(points[i] - meanX) + Math.abs(points[i + 1] - meanY);
+        scale /= 2 * count;
+        if (scale == 0)
+            return null;
+
+        //Scatter matrices of the quadratic part D1 = (x^2, xy, y^2) and linear part D2 = (x, y, 1)
+        double[] s1 = new double[9];
+        double[] s2 = new double[9];
+        double[] s3 = new double[9];
+        double[] d1 = new double[3];
+        double[] d2 = new double[3];
+        for (int i = 0; i < count * 2; i += 2) {
+            double x = (points[i] - meanX) / scale;
+            double y = (points[i + 1] - meanY) / scale;
+            d1[0] = x * x;
+            d1[1] = x * y;
+            d1[2] = y * y;
+            d2[0] = x;
+            d2[1] = y;
+            d2[2] = 1;
+            for (int r = 0; r < 3; r++) {
+                for (int c = 0; c < 3; c++) {
+                    s1[r * 3 + c] += d1[r] * d1[c];
+                    s2[r * 3 + c] += d1[r] * d2[c];
+                    s3[r * 3 + c] += d2[r] * d2[c];
+                }
+            }
+        }
+
+        //T = -S3^-1 S2^T gives the linear coefficients from the quadratic ones
+        double[] s3Inverse = invert(s3);
+        if (s3Inverse == null)
+            return null;
+        double[] t = new double[9];
+        for (int r = 0; r < 3; r++)
+            for (int c = 0; c < 3; c++)
+                for (int k = 0; k < 3; k++)
+                    t[r * 3 + c] -= s3Inverse[r * 3 + k] * s2[c * 3 + k];
+
+        //Reduced scatter matrix M = S1 + S2 T, premultiplied by the inverse of the constraint matrix
+        double[] m = new double[9];
+        for (int r = 0; r < 3; r++) {
+            for (int c = 0; c < 3; c++) {
+                double sum = s1[r * 3 + c];
+                for (int k = 0; k < 3; k++)
+                    sum += s2[r * 3 + k] * t[k * 3 + c];
+                m[r * 3 + c] = sum;
+            }
+        }
+        double[] n = new double[]{
+                m[6] / 2, m[7] / 2, m[8] / 2,
+                -m[3], -m[4], -m[5],
+                m[0] / 2, m[1] / 2, m[2] / 2};
+
+        //The ellipse is the eigenvector that satisfies the constraint 4ac - b^2 > 0
+        double[] roots = new double[3];
+        int rootCount = solveCubic(
+                -(n[0] + n[4] + n[8]),
+                n[0] * n[4] - n[1] * n[3] + n[0] * n[8] - n[2] * n[6] + n[4] * n[8] - n[5] * n[7],
+                -determinant(n), roots);
+        double[] a = null;
+        double best = 0;
+        for (int i = 0; i < rootCount; i++) {
+            double[] v = nullVector(n, roots[i]);
+            if (v == null)
+                continue;
+            double constraint = 4 * v[0] * v[2] - v[1] * v[1];
+            double norm = v[0] * v[0] + v[1] * v[1] + v[2] * v[2];
+            if (constraint / norm > best) {
+                best = constraint / norm;
+                a = v;
+            }
+        }
+        if (a == null)
+            return null;
+
+        //Conic A x^2 + B xy + C y^2 + D x + E y + F = 0
+        double conicA = a[0];
+        double conicB = a[1];
+        double conicC = a[2];
+        double conicD = t[0] * a[0] + t[1] * a[1] + t[2] * a[2];
+        double conicE = t[3] * a[0] + t[4] * a[1] + t[5] * a[2];
+        double conicF = t[6] * a[0] + t[7] * a[1] + t[8] * a[2];
+
+        double denominator = conicB * conicB - 4 * conicA * conicC;
+        if (denominator >= 0)
+            return null;
+        double x0 = (2 * conicC * conicD - conicB * conicE) / denominator;
+        double y0 = (2 * conicA * conicE - conicB * conicD) / denominator;
+        double f0 = conicA * x0 * x0 + conicB * x0 * y0 + conicC * y0 * y0 + conicD * x0 + conicE * y0 + conicF;
+
+        //Axes are the eigenvectors of the quadratic form, the first at the angle phi
+        double root = Math.sqrt((conicA - conicC) * (conicA - conicC) + conicB * conicB);
+        double lambda1 = (conicA + conicC + root) / 2;
+        double lambda2 = (conicA + conicC - root) / 2;
+        double axis1 = -f0 / lambda1;
+        double axis2 = -f0 / lambda2;
+        if (!(axis1 > 0) || !(axis2 > 0))
+            return null;
+        axis1 = Math.sqrt(axis1) * scale;
+        axis2 = Math.sqrt(axis2) * scale;
+        double phi = Math.toDegrees(0.5 * Math.atan2(conicB, conicA - conicC));
+
+        //The width is the minor axis
+        double width = 2 * Math.min(axis1, axis2);
+        double height = 2 * Math.max(axis1, axis2);
+        double angle = axis1 <= axis2 ? phi : phi + 90;
+        angle = ((angle % 180) + 180) % 180;
+
+        Point center = new Point(x0 * scale + meanX, y0 * scale + meanY);
+        return new RotatedRect(center, new Size(width, height), angle);
+    }
+
+    private static double determinant(double[] m) {
+        return m[0] * (m[4] * m[8] - m[5] * m[7])
+                - m[1] * (m[3] * m[8] - m[5] * m[6])
+                + m[2] * (m[3] * m[7] - m[4] * m[6]);
+    }
+
+    private static double[] invert(double[] m) {
+        double det = determinant(m);
+        if (det == 0 || Double.isNaN(det))
+            return null;
+        return new double[]{
+                (m[4] * m[8] - m[5] * m[7]) / det, (m[2] * m[7] - m[1] * m[8]) / det, (m[1] * m[5] - m[2] * m[4]) / det,
+                (m[5] * m[6] - m[3] * m[8]) / det, (m[0] * m[8] - m[2] * m[6]) / det, (m[2] * m[3] - m[0] * m[5]) / det,
+                (m[3] * m[7] - m[4] * m[6]) / det, (m[1] * m[6] - m[0] * m[7]) / det, (m[0] * m[4] - m[1] * m[3]) / det};
+    }
+
+    /**
+     * Find a vector v with (M - lambda I) v = 0, from the largest cross product of two rows
+     */
+    private static double[] nullVector(double[] m, double lambda) {
+        double[] r0 = {m[0] - lambda, m[1], m[2]};
+        double[] r1 = {m[3], m[4] - lambda, m[5]};
+        double[] r2 = {m[6], m[7], m[8] - lambda};
+        double[][] candidates = {cross(r0, r1), cross(r0, r2), cross(r1, r2)};
+        double[] best = null;
+        double bestNorm = 0;
+        for (double[] c : candidates) {
+            double norm = c[0] * c[0] + c[1] * c[1] + c[2] * c[2];
+            if (norm > bestNorm) {
+                bestNorm = norm;
+                best = c;
+            }
+        }
+        return best;
+    }
+
+    private static double[] cross(double[] u, double[] v) {
+        return new double[]{u[1] * v[2] - u[2] * v[1], u[2] * v[0] - u[0] * v[2], u[0] * v[1] - u[1] * v[0]};
+    }
+
+    /**
+     * Find the real roots of x^3 + b x^2 + c x + d = 0
+     *
+     * @return Number of roots written to the array
+     */
+    private static int solveCubic(double b, double c, double d, double[] roots) {
+        //Depressed cubic t^3 + p t + q = 0, where x = t - b/3
+        double p = c - b * b / 3;
+        double q = 2 * b * b * b / 27 - b * c / 3 + d;
+        double shift = -b / 3;
+        double discriminant = q * q / 4 + p * p * p / 27;
+        if (discriminant > 0) {
+            double s = Math.sqrt(discriminant);
+            roots[0] = Math.cbrt(-q / 2 + s) + Math.cbrt(-q / 2 - s) + shift;
+            return 1;
+        }
+        if (p == 0) {
+            roots[0] = shift;
+            return 1;
+        }
+        //Three real roots
+        double r = 2 * Math.sqrt(-p / 3);
+        double theta = Math.acos(Math.max(-1, Math.min(1, 3 * q / (p * r))));
+        for (int k = 0; k < 3; k++)
+            roots[k] = r * Math.cos((theta - 2 * Math.PI * k) / 3) + shift;
+        return 3;
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright (c) 2016 Arthur Pachachura, LASA Robotics, and contributors
+ * MIT licensed
+ */
+package org.lasarobotics.vision.detection;
+
+import org.lasarobotics.vision.detection.objects.Ellipse;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfPoint;
+import org.opencv.core.MatOfPoint2f;
+import org.opencv.core.Point;
+import org.opencv.core.Rect;
+import org.opencv.core.RotatedRect;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Locates ellipses in grayscale images, reusing its work buffers between calls
+ * <p/>
+ * Detection is the same as PrimitiveDetection.locateEllipses(), but contours that are too short or
+ * too small are skipped before an ellipse is fit to them, and no contour list is returned.
+ * Small contours are fit in Java with EllipseFitter, avoiding the cost of copying them to native memory.
+ * An instance must not be used by several threads at once.
+ */
+public class EllipseLocator {
+    //Contour must have at least 6 points for fitEllipse
+    private static final int MIN_POINTS = 6;
+    private static final int DILATION = 2;
+
+    /**
+     * Contours with up to this many points are fit in Java by default
+     */
+    public static final int DEFAULT_JAVA_FIT_POINTS = 40;
+
+    // Cache
+    private final Mat mDown = new Mat();
+    private final Mat mBlurred = new Mat();
+    private final Mat mEdges = new Mat();
+    private final Mat mHierarchy = new Mat();
+    private final Mat mKernel = Imgproc.getStructuringElement(Imgproc.CV_SHAPE_RECT,
+            new Size(2 * DILATION + 1, 2 * DILATION + 1), new Point(DILATION, DILATION));
+    private final MatOfPoint2f mPoints = new MatOfPoint2f();
+    private final List<MatOfPoint> mContours = new ArrayList<>();
+    private final Size mDownSize = new Size();
+    private final Size mUpSize = new Size();
+    private int[] points = new int[0];
+    private float[] pointsFloat = new float[0];
+
+    private double minSize = 0;
+
+    /**
+     * Set the smallest contour that an ellipse is fit to
+     *
+     * @param pixels Minimum width and height of the contour bounding box in pixels (default 0, no minimum)
+     */
+    public void setMinimumSize(double pixels) {
+        this.minSize = pixels;
+    }
+
+    /**
+     * Locate ellipses within an image
+     *
+     * @param grayImage Grayscale image, which is not modified
+     * @return Ellipses in the image
+     */
+    public List<Ellipse> locateEllipses(Mat grayImage) {
+        return locateEllipses(grayImage, DEFAULT_JAVA_FIT_POINTS);
+    }
+
+    /**
+     * Locate ellipses within an image, choosing which contours are fit in Java
+     *
+     * @param grayImage        Grayscale image, which is not modified
+     * @param maxJavaFitPoints Contours with up to this many points are fit in Java, and larger ones
+     *                         with Imgproc.fitEllipse(). Zero always uses Imgproc.fitEllipse().
+     * @return Ellipses in the image
+     */
+    public List<Ellipse> locateEllipses(Mat grayImage, int maxJavaFitPoints) {
+        //Filter out some noise by halving then doubling size
+        mDownSize.width = grayImage.width() / 2;
+        mDownSize.height = grayImage.height() / 2;
+        Imgproc.pyrDown(grayImage, mDown, mDownSize);
+        mUpSize.width = mDown.width() * 2;
+        mUpSize.height = mDown.height() * 2;
+        Imgproc.pyrUp(mDown, mBlurred, mUpSize);
+
+        Imgproc.Canny(mBlurred, mEdges, 5, 75, 3, true);
+        Imgproc.dilate(mEdges, mEdges, mKernel);
+
+        //Find contours - the parameters here are very important to compression and retention
+        clearContours();
+        Imgproc.findContours(mEdges, mContours, mHierarchy, Imgproc.CV_RETR_TREE, Imgproc.CHAIN_APPROX_TC89_KCOS);
+
+        //Find ellipses by finding fit
+        List<Ellipse> ellipses = new ArrayList<>();
+        for (int i = 0; i < mContours.size(); i++) {
+            MatOfPoint co = mContours.get(i);
+            int count = co.rows();
+            if (count < MIN_POINTS)
+                continue;
+            if (minSize > 0) {
+                Rect bounds = Imgproc.boundingRect(co);
+                if (bounds.width < minSize || bounds.height < minSize)
+                    continue;
+            }
+
+            if (points.length < count * 2) {
+                points = new int[count * 2];
+                pointsFloat = new float[count * 2];
+            }
+            co.get(0, 0, points);
+
+            //Fit small contours in Java, falling back to OpenCV if the Java fit fails
+            RotatedRect fit = null;
+            if (count <= maxJavaFitPoints)
+                fit = EllipseFitter.fit(points, count);
+            if (fit == null) {
+                //Copy the points to floats for fitEllipse, through reused buffers
+                for (int j = 0; j < count * 2; j++)
+                    pointsFloat[j] = points[j];
+                mPoints.create(count, 1, CvType.CV_32FC2);
+                mPoints.put(0, 0, pointsFloat);
+                fit = Imgproc.fitEllipse(mPoints);
+            }
+            ellipses.add(new Ellipse(fit));
+        }
+        clearContours();
+
+        return ellipses;
+    }
+
+    private void clearContours() {
+        for (int i = 0; i < mContours.size(); i++)
+            mContours.get(i).release();
+        mContours.clear();
+    }
+
+    /**
+     * Release all native memory held by the locator
+     * The locator may still be used afterwards.
+     */
+    public void release() {
+        clearContours();
+        mDown.release();
+        mBlurred.release();
+        mEdges.release();
+        mHierarchy.release();
+        mPoints.release();
+    }
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright (c) 2016 Arthur Pachachura, LASA Robotics, and contributors
+ * MIT licensed
+ */
+package org.lasarobotics.vision.detection;
+
+import org.lasarobotics.vision.detection.objects.Ellipse;
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfDouble;
+import org.opencv.core.Point;
+import org.opencv.core.Size;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Caches located ellipses between frames, re-running ellipse detection only where the image changed
+ * <p/>
+ * The image is split into a grid of tiles. Each tile has a cheap change signature (its mean
+ * and standard deviation). Ellipse detection runs once on the bounding box of all changed tiles
+ * plus a margin, and only ellipses centered in changed tiles are replaced.
+ */
+public class EllipseTileCache {
+    private static final double DEFAULT_THRESHOLD = 4.0;
+
+    private final int columns;
+    private final int rows;
+    private final List<List<Ellipse>> tiles;
+    private final double[] means;
+    private final double[] deviations;
+    private final boolean[] changed;
+    private final MatOfDouble mean = new MatOfDouble();
+    private final MatOfDouble deviation = new MatOfDouble();
+    private final EllipseLocator defaultLocator = new EllipseLocator();
+    private EllipseLocator locator = defaultLocator;
+    private double threshold = DEFAULT_THRESHOLD;
+    private Size imageSize = null;
+    private int changedCount = 0;
+
+    /**
+     * Instantiate a cache with a 4x4 grid of tiles
+     */
+    public EllipseTileCache() {
+        this(4, 4);
+    }
+
+    /**
+     * Instantiate a cache with a grid of tiles
+     *
+     * @param columns Number of tile columns
+     * @param rows    Number of tile rows
+     */
+    public EllipseTileCache(int columns, int rows) {
+        if (columns < 1 || rows < 1)
+            throw new IllegalArgumentException("There must be at least one tile");
+        this.columns = columns;
+        this.rows = rows;
+        tiles = new ArrayList<>(columns * rows);
+        for (int i = 0; i < columns * rows; i++)
+            tiles.add(new ArrayList<Ellipse>());
+        means = new double[columns * rows];
+        deviations = new double[columns * rows];
+        changed = new boolean[columns * rows];
+    }
+
+    /**
+     * Set how much a tile must change before its ellipses are located again
+     *
+     * @param threshold Change in mean or standard deviation of the gray level, from 0 to 255 (default 4)
+     */
+    public void setThreshold(double threshold) {
+        this.threshold = threshold;
+    }
+
+    /**
+     * Set the locator used on changed areas, such as a ParallelEllipseLocator
+     * The caller owns the locator and must release it once it is no longer set.
+     *
+     * @param locator Ellipse locator, or null to use the cache's own locator (default)
+     */
+    public void setLocator(EllipseLocator locator) {
+        this.locator = locator != null ? locator : defaultLocator;
+    }
+
+    /**
+     * Forget all cached ellipses, so that the next frame is processed in full
+     */
+    public void reset() {
+        imageSize = null;
+    }
+
+    /**
+     * Get the number of tiles that were processed again in the last frame
+     *
+     * @return Number of changed tiles
+     */
+    public int getChangedTileCount() {
+        return changedCount;
+    }
+
+    /**
+     * Locate ellipses within an image, reusing the results of unchanged tiles
+     * The returned ellipses must not be modified.
+     *
+     * @param grayImage Grayscale image
+     * @return Ellipses in the image
+     */
+    public List<Ellipse> locateEllipses(Mat grayImage) {
+        int tileWidth = grayImage.cols() / columns;
+        int tileHeight = grayImage.rows() / rows;
+        if (tileWidth < 1 || tileHeight < 1)
+            return locator.locateEllipses(grayImage);
+
+        //Everything changed if the frame size did
+        boolean full = imageSize == null || !imageSize.equals(grayImage.size());
+        imageSize = grayImage.size();
+
+        //Compare tile signatures and find the bounding box of the changed tiles
+        int minCol = columns, minRow = rows, maxCol = -1, maxRow = -1;
+        changedCount = 0;
+        for (int r = 0; r < rows; r++) {
+            for (int c = 0; c < columns; c++) {
+                int i = r * columns + c;
+                Mat tile = grayImage.submat(tileTop(r, tileHeight), tileBottom(r, tileHeight, grayImage),
+                        tileLeft(c, tileWidth), tileRight(c, tileWidth, grayImage));
+                Core.meanStdDev(tile, mean, deviation);
+                tile.release();
+                double m = mean.toArray()[0];
+                double d = deviation.toArray()[0];
+
+                changed[i] = full || Math.abs(m - means[i]) > threshold || Math.abs(d - deviations[i]) > threshold;
+                if (changed[i]) {
+                    means[i] = m;
+                    deviations[i] = d;
+                    changedCount++;
+                    minCol = Math.min(minCol, c);
+                    maxCol = Math.max(maxCol, c);
+                    minRow = Math.min(minRow, r);
+                    maxRow = Math.max(maxRow, r);
+                }
+            }
+        }
+
+        if (changedCount > 0) {
+            //Detect on the changed area, with a margin so ellipses crossing tile edges are whole
+            int marginX = tileWidth / 2;
+            int marginY = tileHeight / 2;
+            int left = Math.max(tileLeft(minCol, tileWidth) - marginX, 0);
+            int top = Math.max(tileTop(minRow, tileHeight) - marginY, 0);
+            int right = Math.min(tileRight(maxCol, tileWidth, grayImage) + marginX, grayImage.cols());
+            int bottom = Math.min(tileBottom(maxRow, tileHeight, grayImage) + marginY, grayImage.rows());
+
+            Mat region = grayImage.submat(top, bottom, left, right);
+            List<Ellipse> located = locator.locateEllipses(region);
+            region.release();
+
+            for (int i = 0; i < changed.length; i++)
+                if (changed[i])
+                    tiles.get(i).clear();
+            Point offset = new Point(left, top);
+            for (Ellipse e : located) {
+                e.offset(offset);
+                int c = Math.min((int) (e.center().x / tileWidth), columns - 1);
+                int r = Math.min((int) (e.center().y / tileHeight), rows - 1);
+                if (c < 0 || r < 0)
+                    continue;
+                int i = r * columns + c;
+                //Ellipses centered in unchanged tiles are already cached
+                if (changed[i])
+                    tiles.get(i).add(e);
+            }
+        }
+
+        List<Ellipse> ellipses = new ArrayList<>();
+        for (List<Ellipse> tile : tiles)
+            ellipses.addAll(tile);
+        return ellipses;
+    }
+
+    /**
+     * Release all native memory held by the cache, except a locator given to setLocator()
+     * The cache may still be used afterwards.
+     */
+    public void release() {
+        defaultLocator.release();
+        mean.release();
+        deviation.release();
+        reset();
+    }
+
+    private int tileLeft(int column, int tileWidth) {
+        return column * tileWidth;
+    }
+
+    private int tileTop(int row, int tileHeight) {
+        return row * tileHeight;
+    }
+
+    private int tileRight(int column, int tileWidth, Mat img) {
+        //The last column takes any remaining pixels
+        return (column == columns - 1) ? img.cols() : (column + 1) * tileWidth;
+    }
+
+    private int tileBottom(int row, int tileHeight, Mat img) {
+        //The last row takes any remaining pixels
+        return (row == rows - 1) ? img.rows() : (row + 1) * tileHeight;
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2016 Arthur Pachachura, LASA Robotics, and contributors
+ * MIT licensed
+ */
+package org.lasarobotics.vision.detection;
+
+import org.lasarobotics.vision.detection.objects.Rectangle;
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * Runs several color blob detectors on the same image, downsampling and converting it to HSV only once
+ * <p/>
+ * Each detector keeps its own color range and results, so contours are still retrieved from
+ * each ColorBlobDetector with getContours(). All detectors must use the same number of pyramid levels.
+ */
+public class MultiColorBlobDetector {
+    // Cache
+    private final Mat mPyrDownMat = new Mat();
+    private final Mat mHsvMat = new Mat();
+
+    /**
+     * Process an rgba image with several detectors. The results can be retrieved from each detector.
+     * This method does not modify the image.
+     *
+     * @param rgbaImage An RGBA image matrix
+     * @param detectors Detectors to run on the image
+     */
+    public void process(Mat rgbaImage, ColorBlobDetector... detectors) {
+        process(rgbaImage, null, detectors);
+    }
+
+    /**
+     * Process a region of an rgba image with several detectors. The results can be retrieved from each detector.
+     * Only the region is processed, but contours are returned in full-frame coordinates.
+     * This method does not modify the image.
+     *
+     * @param rgbaImage An RGBA image matrix
+     * @param roi       Region of interest, which is clipped to the image, or null for the whole image
+     * @param detectors Detectors to run on the image
+     */
+    public void process(Mat rgbaImage, Rectangle roi, ColorBlobDetector... detectors) {
+        if (detectors.length == 0)
+            return;
+        int levels = detectors[0].getPyramidLevels();
+        for (ColorBlobDetector detector : detectors)
+            if (detector.getPyramidLevels() != levels)
+                throw new IllegalArgumentException("All detectors must use the same number of pyramid levels");
+
+        Rect region = ColorBlobDetector.getRegion(rgbaImage, roi, levels);
+        if (region == null) {
+            for (ColorBlobDetector detector : detectors)
+                detector.clearContours();
+            return;
+        }
+
+        //Downsample and convert once for all detectors
+        Mat image = ColorBlobDetector.getRegionMat(rgbaImage, region);
+        Mat downsampled = ColorBlobDetector.downsample(image, mPyrDownMat, levels);
+        for (ColorBlobDetector detector : detectors) {
+            if (detector.needsHsv()) {
+                Imgproc.cvtColor(downsampled, mHsvMat, Imgproc.COLOR_RGB2HSV_FULL);
+                break;
+            }
+        }
+
+        for (ColorBlobDetector detector : detectors)
+            detector.processDownsampled(downsampled, mHsvMat, region.x, region.y);
+        if (image != rgbaImage)
+            image.release();
+    }
+}
@@ -31,7 +31,8 @@ import java.util.List;
  * Object Detector - searches a scene for keypoints then can match keypoints in the object
  * to keypoints in the scene, effectively locating an object within a scene
  * <p/>
- * This class is designed to detect a single object at a time in an image
+ * This class is designed to detect a single object at a time in an image, or several objects
+ * at once from an ObjectModelIndex
  */
 public class ObjectDetection {
     private final FeatureDetector detector;
@@ -107,9 +108,9 @@ public class ObjectDetection {
         //Create the unscaled array of corners, representing the object size
         Point cornersObject[] = new Point[4];
         cornersObject[0] = new Point(0, 0);
-        cornersObject[1] = new Point(objectAnalysis.object.cols(), 0);
-        cornersObject[2] = new Point(objectAnalysis.object.cols(), objectAnalysis.object.rows());
-        cornersObject[3] = new Point(0, objectAnalysis.object.rows());
+        cornersObject[1] = new Point(objectAnalysis.width, 0);
+        cornersObject[2] = new Point(objectAnalysis.width, objectAnalysis.height);
+        cornersObject[3] = new Point(0, objectAnalysis.height);
 
         Point[] cornersSceneTemp = new Point[0];
 
@@ -124,14 +125,14 @@ public class ObjectDetection {
         //Draw the lines of the object on the scene
         Point[] cornersScene = cornersSceneMatrix.toArray();
         final ColorRGBA lineColor = new ColorRGBA("#00ff00");
-        Drawing.drawLine(output, new Point(cornersScene[0].x + objectAnalysis.object.cols(), cornersScene[0].y),
-                new Point(cornersScene[1].x + objectAnalysis.object.cols(), cornersScene[1].y), lineColor, 5);
-        Drawing.drawLine(output, new Point(cornersScene[1].x + objectAnalysis.object.cols(), cornersScene[1].y),
-                new Point(cornersScene[2].x + objectAnalysis.object.cols(), cornersScene[2].y), lineColor, 5);
-        Drawing.drawLine(output, new Point(cornersScene[2].x + objectAnalysis.object.cols(), cornersScene[2].y),
-                new Point(cornersScene[3].x + objectAnalysis.object.cols(), cornersScene[3].y), lineColor, 5);
-        Drawing.drawLine(output, new Point(cornersScene[3].x + objectAnalysis.object.cols(), cornersScene[3].y),
-                new Point(cornersScene[0].x + objectAnalysis.object.cols(), cornersScene[0].y), lineColor, 5);
+        Drawing.drawLine(output, new Point(cornersScene[0].x + objectAnalysis.width, cornersScene[0].y),
+                new Point(cornersScene[1].x + objectAnalysis.width, cornersScene[1].y), lineColor, 5);
+        Drawing.drawLine(output, new Point(cornersScene[1].x + objectAnalysis.width, cornersScene[1].y),
+                new Point(cornersScene[2].x + objectAnalysis.width, cornersScene[2].y), lineColor, 5);
+        Drawing.drawLine(output, new Point(cornersScene[2].x + objectAnalysis.width, cornersScene[2].y),
+                new Point(cornersScene[3].x + objectAnalysis.width, cornersScene[3].y), lineColor, 5);
+        Drawing.drawLine(output, new Point(cornersScene[3].x + objectAnalysis.width, cornersScene[3].y),
+                new Point(cornersScene[0].x + objectAnalysis.width, cornersScene[0].y), lineColor, 5);
     }
 
     /**
@@ -185,21 +186,14 @@ public class ObjectDetection {
      */
     public SceneAnalysis analyzeScene(Mat scene, ObjectAnalysis analysis) throws IllegalArgumentException {
         MatOfKeyPoint keypointsScene = new MatOfKeyPoint();
-
-        //DETECT KEYPOINTS in scene
-        detector.detect(scene, keypointsScene);
-
-        //EXTRACT KEYPOINT INFO from scene
         Mat descriptorsScene = new Mat();
-        extractor.compute(scene, keypointsScene, descriptorsScene);
+        detectScene(scene, keypointsScene, descriptorsScene);
 
         if (analysis == null) {
             throw new IllegalArgumentException("Analysis must not be null!");
         }
 
-        if (analysis.descriptors.cols() != descriptorsScene.cols() || analysis.descriptors.type() != descriptorsScene.type()) {
-            throw new IllegalArgumentException("Object and scene descriptors do not match in cols() or type().");
-        }
+        checkDescriptors(analysis.descriptors, descriptorsScene);
 
         MatOfDMatch matches = new MatOfDMatch();
         matcher.match(analysis.descriptors, descriptorsScene, matches);
@@ -216,6 +210,63 @@ public class ObjectDetection {
         return new SceneAnalysis(keypointsScene, descriptorsScene, matches, scene);
     }
 
+    /**
+     * Analyzes a scene for every object in an index, matching all objects at once.
+     *
+     * @param scene The scene to be analyzed as a GRAYSCALE matrix
+     * @param index The target objects, as analyzed by analyzeObject() or loaded from a file
+     * @return A scene analysis for each object, in index order, to be used with that object's analysis
+     */
+    public List<SceneAnalysis> analyzeScene(Mat scene, ObjectModelIndex index) throws IllegalArgumentException {
+        if (index == null || index.size() == 0) {
+            throw new IllegalArgumentException("Index must contain at least one object!");
+        }
+
+        MatOfKeyPoint keypointsScene = new MatOfKeyPoint();
+        Mat descriptorsScene = new Mat();
+        detectScene(scene, keypointsScene, descriptorsScene);
+
+        Mat descriptorsObjects = index.getDescriptors();
+        checkDescriptors(descriptorsObjects, descriptorsScene);
+
+        //Match the descriptors of all objects in one pass
+        MatOfDMatch matches = new MatOfDMatch();
+        matcher.match(descriptorsObjects, descriptorsScene, matches);
+
+        //Split the matches by object, so that query indices refer to that object's keypoints
+        List<List<DMatch>> split = new ArrayList<>(index.size());
+        for (int i = 0; i < index.size(); i++)
+            split.add(new ArrayList<DMatch>());
+        for (DMatch match : matches.toArray()) {
+            int i = index.indexOfDescriptor(match.queryIdx);
+            match.queryIdx -= index.getDescriptorOffset(i);
+            split.get(i).add(match);
+        }
+        matches.release();
+
+        List<SceneAnalysis> analyses = new ArrayList<>(index.size());
+        for (List<DMatch> objectMatches : split) {
+            MatOfDMatch m = new MatOfDMatch();
+            m.fromList(objectMatches);
+            analyses.add(new SceneAnalysis(keypointsScene, descriptorsScene, m, scene));
+        }
+        return analyses;
+    }
+
+    private void detectScene(Mat scene, MatOfKeyPoint keypointsScene, Mat descriptorsScene) {
+        //DETECT KEYPOINTS in scene
+        detector.detect(scene, keypointsScene);
+
+        //EXTRACT KEYPOINT INFO from scene
+        extractor.compute(scene, keypointsScene, descriptorsScene);
+    }
+
+    private static void checkDescriptors(Mat descriptorsObject, Mat descriptorsScene) {
+        if (descriptorsObject.cols() != descriptorsScene.cols() || descriptorsObject.type() != descriptorsScene.type()) {
+            throw new IllegalArgumentException("Object and scene descriptors do not match in cols() or type().");
+        }
+    }
+
     /**
      * Feature detector types
      * <p/>
@@ -325,22 +376,33 @@ public class ObjectDetection {
     /**
      * Object analysis class returned after analyzing an object
      */
-    public final class ObjectAnalysis {
+    public static final class ObjectAnalysis {
         final MatOfKeyPoint keypoints;
         final Mat descriptors;
         final Mat object;
+        final int width;
+        final int height;
 
         ObjectAnalysis(MatOfKeyPoint keypoints, Mat descriptors, Mat object) {
+            this(keypoints, descriptors, object, object.cols(), object.rows());
+        }
+
+        /**
+         * Analysis loaded from an ObjectModelIndex file, where the object image is null
+         */
+        ObjectAnalysis(MatOfKeyPoint keypoints, Mat descriptors, Mat object, int width, int height) {
             this.keypoints = keypoints;
             this.descriptors = descriptors;
             this.object = object;
+            this.width = width;
+            this.height = height;
         }
     }
 
     /**
      * Scene analysis class returned after analyzing a scene
      */
-    public final class SceneAnalysis {
+    public static final class SceneAnalysis {
         final MatOfKeyPoint keypoints;
         final Mat descriptors;
         final MatOfDMatch matches;
@@ -0,0 +1,290 @@
+/*
+ * Copyright (c) 2016 Arthur Pachachura, LASA Robotics, and contributors
+ * MIT licensed
+ */
+package org.lasarobotics.vision.detection;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.KeyPoint;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfKeyPoint;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Index of analyzed objects that can be saved to and loaded from a file
+ * <p/>
+ * Saving the analysis of each template avoids detecting and extracting its keypoints every time
+ * an op mode starts. All objects in an index are matched against a scene at once by
+ * ObjectDetection.analyzeScene(). Every object must be analyzed with the same descriptor extractor.
+ * <p/>
+ * The file holds a header ("FTCO", version, object count) followed by each object's name, image size,
+ * keypoints and descriptor matrix, in big-endian order. Only 8-bit and 32-bit float descriptors
+ * are supported, which covers every extractor in ObjectDetection.DescriptorExtractorType.
+ */
+public class ObjectModelIndex {
+    private static final int MAGIC = 0x4654434f; //"FTCO"
+    private static final int VERSION = 1;
+
+    private final List<String> names = new ArrayList<>();
+    private final List<ObjectDetection.ObjectAnalysis> objects = new ArrayList<>();
+    private int[] offsets = new int[]{0};
+    private Mat descriptors = null;
+
+    /**
+     * Add an analyzed object to the index
+     *
+     * @param name     Name of the object, such as the template file name
+     * @param analysis Object analysis from ObjectDetection.analyzeObject()
+     */
+    public void add(String name, ObjectDetection.ObjectAnalysis analysis) {
+        if (name == null || analysis == null)
+            throw new IllegalArgumentException("Name and analysis must not be null");
+        //Objects without keypoints have empty descriptors of no particular type
+        for (ObjectDetection.ObjectAnalysis o : objects) {
+            if (o.descriptors.empty() || analysis.descriptors.empty())
+                continue;
+            if (o.descriptors.cols() != analysis.descriptors.cols() || o.descriptors.type() != analysis.descriptors.type())
+                throw new IllegalArgumentException("All objects must use the same descriptor extractor");
+            break;
+        }
+        names.add(name);
+        objects.add(analysis);
+        offsets = Arrays.copyOf(offsets, offsets.length + 1);
+        offsets[offsets.length - 1] = offsets[offsets.length - 2] + analysis.descriptors.rows();
+        if (descriptors != null) {
+            descriptors.release();
+            descriptors = null;
+        }
+    }
+
+    /**
+     * Get the number of objects in the index
+     *
+     * @return Number of objects
+     */
+    public int size() {
+        return objects.size();
+    }
+
+    /**
+     * Get the name of an object
+     *
+     * @param i Index of the object
+     * @return Name of the object
+     */
+    public String getName(int i) {
+        return names.get(i);
+    }
+
+    /**
+     * Get the analysis of an object, to draw its location with ObjectDetection.drawObjectLocation()
+     *
+     * @param i Index of the object
+     * @return Object analysis
+     */
+    public ObjectDetection.ObjectAnalysis get(int i) {
+        return objects.get(i);
+    }
+
+    /**
+     * Get the descriptors of all objects, one after another
+     */
+    Mat getDescriptors() {
+        if (descriptors == null) {
+            List<Mat> all = new ArrayList<>(objects.size());
+            for (ObjectDetection.ObjectAnalysis o : objects)
+                if (!o.descriptors.empty())
+                    all.add(o.descriptors);
+            descriptors = new Mat();
+            if (!all.isEmpty())
+                Core.vconcat(all, descriptors);
+        }
+        return descriptors;
+    }
+
+    /**
+     * Get the row of getDescriptors() at which an object's descriptors start
+     */
+    int getDescriptorOffset(int i) {
+        return offsets[i];
+    }
+
+    /**
+     * Find the object that a row of getDescriptors() belongs to
+     */
+    int indexOfDescriptor(int row) {
+        int i = Arrays.binarySearch(offsets, 0, offsets.length - 1, row);
+        if (i < 0)
+            return -i - 2;
+        //Skip objects without descriptors, which share an offset with the next object
+        while (i < offsets.length - 2 && offsets[i + 1] == row)
+            i++;
+        return i;
+    }
+
+    /**
+     * Save the index to a file
+     *
+     * @param file File to write, which is overwritten
+     * @throws IOException If the file cannot be written
+     */
+    public void save(File file) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(objects.size());
+            for (int i = 0; i < objects.size(); i++) {
+                ObjectDetection.ObjectAnalysis o = objects.get(i);
+                out.writeUTF(names.get(i));
+                out.writeInt(o.width);
+                out.writeInt(o.height);
+
+                KeyPoint[] keypoints = o.keypoints.toArray();
+                out.writeInt(keypoints.length);
+                for (KeyPoint kp : keypoints) {
+                    out.writeFloat((float) kp.pt.x);
+                    out.writeFloat((float) kp.pt.y);
+                    out.writeFloat(kp.size);
+                    out.writeFloat(kp.angle);
+                    out.writeFloat(kp.response);
+                    out.writeInt(kp.octave);
+                    out.writeInt(kp.class_id);
+                }
+
+                Mat d = o.descriptors;
+                out.writeInt(d.rows());
+                out.writeInt(d.cols());
+                out.writeInt(d.type());
+                int length = d.rows() * d.cols() * d.channels();
+                if (length == 0)
+                    continue;
+                if (isByteDepth(d.depth())) {
+                    byte[] data = new byte[length];
+                    d.get(0, 0, data);
+                    out.write(data);
+                } else if (d.depth() == CvType.CV_32F) {
+                    float[] data = new float[length];
+                    d.get(0, 0, data);
+                    for (float f : data)
+                        out.writeFloat(f);
+                } else {
+                    throw new IllegalArgumentException("Unsupported descriptor type " + CvType.typeToString(d.type()));
+                }
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Load an index from a file, mapping the file into memory
+     * Loaded objects have no image, so only their size is known.
+     *
+     * @param file File written by save()
+     * @return Loaded index
+     * @throws IOException If the file cannot be read or is not an object index
+     */
+    public static ObjectModelIndex load(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return read(buffer);
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static ObjectModelIndex read(ByteBuffer buffer) throws IOException {
+        try {
+            if (buffer.getInt() != MAGIC)
+                throw new IOException("Not an object index file");
+            int version = buffer.getInt();
+            if (version != VERSION)
+                throw new IOException("Unsupported object index version " + version);
+
+            ObjectModelIndex index = new ObjectModelIndex();
+            int count = buffer.getInt();
+            for (int i = 0; i < count; i++) {
+                String name = readUTF(buffer);
+                int width = buffer.getInt();
+                int height = buffer.getInt();
+
+                KeyPoint[] keypoints = new KeyPoint[buffer.getInt()];
+                for (int k = 0; k < keypoints.length; k++) {
+                    float x = buffer.getFloat();
+                    float y = buffer.getFloat();
+                    float size = buffer.getFloat();
+                    float angle = buffer.getFloat();
+                    float response = buffer.getFloat();
+                    int octave = buffer.getInt();
+                    int classId = buffer.getInt();
+                    keypoints[k] = new KeyPoint(x, y, size, angle, response, octave, classId);
+                }
+
+                int rows = buffer.getInt();
+                int cols = buffer.getInt();
+                int type = buffer.getInt();
+                Mat descriptors = new Mat(rows, cols, type);
+                int length = rows * cols * CvType.channels(type);
+                if (length == 0) {
+                    //No descriptors to read
+                } else if (isByteDepth(CvType.depth(type))) {
+                    byte[] data = new byte[length];
+                    buffer.get(data);
+                    descriptors.put(0, 0, data);
+                } else if (CvType.depth(type) == CvType.CV_32F) {
+                    float[] data = new float[length];
+                    buffer.asFloatBuffer().get(data);
+                    buffer.position(buffer.position() + length * 4);
+                    descriptors.put(0, 0, data);
+                } else {
+                    throw new IOException("Unsupported descriptor type " + CvType.typeToString(type));
+                }
+
+                index.add(name, new ObjectDetection.ObjectAnalysis(new MatOfKeyPoint(keypoints), descriptors,
+                        null, width, height));
+            }
+            return index;
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Object index file is truncated");
+        }
+    }
+
+    private static String readUTF(ByteBuffer buffer) throws IOException {
+        //Written by DataOutputStream.writeUTF() as an unsigned short length, then the characters
+        byte[] data = new byte[buffer.getShort() & 0xffff];
+        buffer.get(data);
+        return new String(data, "UTF-8");
+    }
+
+    private static boolean isByteDepth(int depth) {
+        return depth == CvType.CV_8U || depth == CvType.CV_8S;
+    }
+
+    /**
+     * Release the combined descriptor matrix of the index
+     * The index may still be used afterwards.
+     */
+    public void release() {
+        if (descriptors != null) {
+            descriptors.release();
+            descriptors = null;
+        }
+    }
+}
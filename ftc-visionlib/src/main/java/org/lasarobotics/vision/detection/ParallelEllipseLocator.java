@@ -0,0 +1,254 @@
+/*
+ * Copyright (c) 2016 Arthur Pachachura, LASA Robotics, and contributors
+ * MIT licensed
+ */
+package org.lasarobotics.vision.detection;
+
+import org.lasarobotics.vision.detection.objects.Ellipse;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Locates ellipses in overlapping horizontal bands of an image, one band per thread
+ * <p/>
+ * Each band runs the whole EllipseLocator pipeline on its own buffers. Ellipses found twice in
+ * the overlap between two bands are merged by center and size, keeping the copy from the band
+ * that contains the center. Ellipses taller than the overlap that cross a band edge may be split.
+ * Images too small to split are processed on the calling thread.
+ */
+public class ParallelEllipseLocator extends EllipseLocator {
+    private static final int DEFAULT_OVERLAP = 32;
+    //Two ellipses are the same if they differ by at most this fraction of their size, or 2 px
+    private static final double MERGE_TOLERANCE = 0.1;
+    private static final double MERGE_MIN_TOLERANCE = 2;
+
+    private final EllipseLocator[] locators;
+    private final ExecutorService pool;
+    private final boolean ownsPool;
+    private int overlap = DEFAULT_OVERLAP;
+
+    /**
+     * Instantiate a locator with one band per processor, up to four, on its own thread pool
+     */
+    public ParallelEllipseLocator() {
+        this(Math.max(Math.min(Runtime.getRuntime().availableProcessors(), 4), 1));
+    }
+
+    /**
+     * Instantiate a locator on its own thread pool
+     *
+     * @param bands Number of bands, at least 1
+     */
+    public ParallelEllipseLocator(int bands) {
+        this(bands, bands > 1 ? Executors.newFixedThreadPool(bands - 1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "FTCVision Ellipse");
+                thread.setDaemon(true);
+                return thread;
+            }
+        }) : null, true);
+    }
+
+    /**
+     * Instantiate a locator on a shared thread pool
+     * The calling thread processes one band itself, so the pool only needs bands - 1 threads.
+     *
+     * @param bands Number of bands, at least 1
+     * @param pool  Thread pool, which is not shut down by release()
+     */
+    public ParallelEllipseLocator(int bands, ExecutorService pool) {
+        this(bands, pool, false);
+    }
+
+    private ParallelEllipseLocator(int bands, ExecutorService pool, boolean ownsPool) {
+        if (bands < 1)
+            throw new IllegalArgumentException("There must be at least one band");
+        locators = new EllipseLocator[bands];
+        for (int i = 0; i < bands; i++)
+            locators[i] = new EllipseLocator();
+        this.pool = pool;
+        this.ownsPool = ownsPool;
+    }
+
+    /**
+     * Set how far each band extends into its neighbors
+     *
+     * @param pixels Overlap in pixels (default 32)
+     */
+    public void setOverlap(int pixels) {
+        if (pixels < 0)
+            throw new IllegalArgumentException("Overlap must not be negative");
+        this.overlap = pixels;
+    }
+
+    @Override
+    public void setMinimumSize(double pixels) {
+        super.setMinimumSize(pixels);
+        for (EllipseLocator locator : locators)
+            locator.setMinimumSize(pixels);
+    }
+
+    @Override
+    public List<Ellipse> locateEllipses(final Mat grayImage, final int maxJavaFitPoints) {
+        final int bands = locators.length;
+        final int rows = grayImage.rows();
+        final int bandHeight = (rows + bands - 1) / bands;
+        if (bands == 1 || pool == null || bandHeight < 2 * overlap)
+            return super.locateEllipses(grayImage, maxJavaFitPoints);
+
+        //Run every band but the first on the pool, and the first on this thread
+        List<Future<List<Ellipse>>> tasks = new ArrayList<>(bands - 1);
+        for (int i = 1; i < bands; i++) {
+            final int band = i;
+            Callable<List<Ellipse>> task = new Callable<List<Ellipse>>() {
+                @Override
+                public List<Ellipse> call() {
+                    return locateBand(grayImage, band, bandHeight, maxJavaFitPoints);
+                }
+            };
+            try {
+                tasks.add(pool.submit(task));
+            } catch (RejectedExecutionException e) {
+                //The pool was shut down, so process the band here
+                tasks.add(new CompletedFuture(locateBand(grayImage, band, bandHeight, maxJavaFitPoints)));
+            }
+        }
+
+        List<List<Ellipse>> found = new ArrayList<>(bands);
+        Throwable failure = null;
+        try {
+            found.add(locateBand(grayImage, 0, bandHeight, maxJavaFitPoints));
+        } catch (RuntimeException e) {
+            failure = e;
+        }
+
+        //Wait for every band, even after a failure, so no band still uses its locator once this returns
+        boolean interrupted = false;
+        for (Future<List<Ellipse>> task : tasks) {
+            while (true) {
+                try {
+                    found.add(task.get());
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    if (failure == null)
+                        failure = e.getCause();
+                    break;
+                }
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+        if (failure != null)
+            throw new RuntimeException("Ellipse location failed", failure);
+
+        return merge(found, bandHeight);
+    }
+
+    private List<Ellipse> locateBand(Mat grayImage, int band, int bandHeight, int maxJavaFitPoints) {
+        int top = Math.max(band * bandHeight - overlap, 0);
+        int bottom = Math.min((band + 1) * bandHeight + overlap, grayImage.rows());
+        Mat region = grayImage.submat(top, bottom, 0, grayImage.cols());
+        List<Ellipse> ellipses = locators[band].locateEllipses(region, maxJavaFitPoints);
+        region.release();
+
+        Point offset = new Point(0, top);
+        for (Ellipse e : ellipses)
+            e.offset(offset);
+        return ellipses;
+    }
+
+    private static List<Ellipse> merge(List<List<Ellipse>> found, int bandHeight) {
+        List<Ellipse> ellipses = new ArrayList<>();
+        for (int band = 0; band < found.size(); band++) {
+            for (Ellipse e : found.get(band)) {
+                //Ellipses centered in the band are always kept
+                int owner = (int) Math.floor(e.center().y / bandHeight);
+                if (owner == band || owner < 0 || owner >= found.size()) {
+                    ellipses.add(e);
+                    continue;
+                }
+                //Otherwise, keep it only if the band containing its center did not find it too
+                if (!containsMatch(found.get(owner), e, owner, bandHeight))
+                    ellipses.add(e);
+            }
+        }
+        return ellipses;
+    }
+
+    private static boolean containsMatch(List<Ellipse> ellipses, Ellipse target, int band, int bandHeight) {
+        for (Ellipse e : ellipses) {
+            if ((int) Math.floor(e.center().y / bandHeight) != band)
+                continue;
+            double size = Math.max(target.height(), target.width());
+            double tolerance = Math.max(size * MERGE_TOLERANCE, MERGE_MIN_TOLERANCE);
+            if (Math.hypot(e.center().x - target.center().x, e.center().y - target.center().y) <= tolerance &&
+                    Math.abs(e.width() - target.width()) <= tolerance &&
+                    Math.abs(e.height() - target.height()) <= tolerance)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Release all native memory held by the locator, and shut down its own thread pool
+     * The locator may still be used afterwards, but runs on the calling thread only.
+     */
+    @Override
+    public void release() {
+        super.release();
+        for (EllipseLocator locator : locators)
+            locator.release();
+        if (ownsPool && pool != null)
+            pool.shutdown();
+    }
+
+    /**
+     * Result of a band that was processed on the calling thread
+     */
+    private static final class CompletedFuture implements Future<List<Ellipse>> {
+        private final List<Ellipse> result;
+
+        CompletedFuture(List<Ellipse> result) {
+            this.result = result;
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            return false;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return false;
+        }
+
+        @Override
+        public boolean isDone() {
+            return true;
+        }
+
+        @Override
+        public List<Ellipse> get() {
+            return result;
+        }
+
+        @Override
+        public List<Ellipse> get(long timeout, TimeUnit unit) {
+            return result;
+        }
+    }
+}
@@ -12,10 +12,12 @@ import org.lasarobotics.vision.detection.objects.Contour;
 import org.lasarobotics.vision.detection.objects.Ellipse;
 import org.lasarobotics.vision.detection.objects.Rectangle;
 import org.lasarobotics.vision.image.Filter;
-import org.lasarobotics.vision.util.MathUtil;
+import org.opencv.core.CvType;
 import org.opencv.core.Mat;
 import org.opencv.core.MatOfPoint;
 import org.opencv.core.MatOfPoint2f;
+import org.opencv.core.Rect;
+import org.opencv.core.Size;
 import org.opencv.imgproc.Imgproc;
 
 import java.util.ArrayList;
@@ -30,9 +32,20 @@ public class PrimitiveDetection {
     private static final int APERTURE_CANNY = 3;
     private static final double MAX_COSINE_VALUE = 0.5;
     private static final double EPLISON_APPROX_TOLERANCE_FACTOR = 0.02;
+    private static final double MIN_RECTANGLE_AREA = 1000;
+
+    // Cache for locatePolygons()
+    private final Mat mDown = new Mat();
+    private final Mat mBlurred = new Mat();
+    private final Mat mEdges = new Mat();
+    private final Mat mHierarchy = new Mat();
+    private final MatOfPoint2f mCurve = new MatOfPoint2f();
+    private final MatOfPoint2f mApprox = new MatOfPoint2f();
+    private float[] vertices = new float[0];
 
     /**
      * Locate ellipses within an image
+     * To locate ellipses on every frame, an EllipseLocator reuses its buffers and is faster.
      *
      * @param grayImage Grayscale image
      * @return Ellipse locations
@@ -61,26 +74,25 @@ public class PrimitiveDetection {
         //Find ellipses by finding fit
         List<Ellipse> ellipses = new ArrayList<>();
         for (MatOfPoint co : contoursTemp) {
-            contours.add(new Contour(co));
             //Contour must have at least 6 points for fitEllipse
-            if (co.toArray().length < 6)
+            if (co.rows() < 6)
                 continue;
             //Copy MatOfPoint to MatOfPoint2f
             MatOfPoint2f matOfPoint2f = new MatOfPoint2f(co.toArray());
             //Fit an ellipse to the current contour
             Ellipse ellipse = new Ellipse(Imgproc.fitEllipse(matOfPoint2f));
+            matOfPoint2f.release();
 
             //Draw ellipse
             ellipses.add(ellipse);
         }
 
+        gray.release();
+        cacheHierarchy.release();
         return new EllipseLocationResult(contours, ellipses);
     }
 
 
-    //TODO convert this to locatePolygons() with n sides
-    //TODO see http://opencv-code.com/tutorials/detecting-simple-shapes-in-an-image/
-
     /**
      * Locate rectangles in an image
      *
@@ -88,87 +100,144 @@ public class PrimitiveDetection {
      * @return Rectangle locations
      */
     public RectangleLocationResult locateRectangles(Mat grayImage) {
-        Mat gray = grayImage.clone();
+        PolygonLocationResult result = locatePolygons(grayImage, 4, MIN_RECTANGLE_AREA, MAX_COSINE_VALUE);
 
-        //Filter out some noise by halving then doubling size
-        Filter.downsample(gray, 2);
-        Filter.upsample(gray, 2);
-
-        //Mat is short for Matrix, and here is used to store an image.
-        //it is n-dimensional, but as an image, is two-dimensional
-        Mat cacheHierarchy = new Mat();
-        Mat grayTemp = new Mat();
+        //Convert the points to rectangle instances
         List<Rectangle> rectangles = new ArrayList<>();
-        List<Contour> contours = new ArrayList<>();
+        for (Contour polygon : result.getPolygons())
+            rectangles.add(new Rectangle(polygon.getData().toArray()));
+        return new RectangleLocationResult(result.getPolygons(), rectangles);
+    }
+
+    //TODO see http://opencv-code.com/tutorials/detecting-simple-shapes-in-an-image/
+
+    /**
+     * Locate convex polygons with a specific number of sides in an image
+     * <p/>
+     * Contours that cannot hold a large enough polygon are rejected by their bounding box and point
+     * count before being approximated. Every corner of a polygon must be close to the interior angle
+     * of a regular polygon, e.g. 60 degrees for a triangle and 120 degrees for a hexagon.
+     * This method does not modify the image.
+     *
+     * @param grayImage          Grayscale image
+     * @param sides              Number of sides, at least 3
+     * @param minArea            Minimum polygon area in pixels
+     * @param maxCosineDeviation Largest difference between the cosine of a corner and the cosine of
+     *                           the regular interior angle, from 0 (exact) to 2 (any angle)
+     * @return Polygon locations
+     */
+    public PolygonLocationResult locatePolygons(Mat grayImage, int sides, double minArea, double maxCosineDeviation) {
+        if (sides < 3)
+            throw new IllegalArgumentException("A polygon has at least 3 sides");
+        double expectedCosine = Math.cos(Math.PI * (sides - 2) / sides);
+        if (vertices.length != sides * 2)
+            vertices = new float[sides * 2];
+
+        //Filter out some noise by halving then doubling size
+        Imgproc.pyrDown(grayImage, mDown, new Size(grayImage.width() / 2, grayImage.height() / 2));
+        Imgproc.pyrUp(mDown, mBlurred, new Size(mDown.width() * 2, mDown.height() * 2));
 
         //This finds the edges using a Canny Edge Detector
-        //It is sent the grayscale Image, a temp Mat, the lower detection threshold for an edge,
+        //It is sent the grayscale Image, an output Mat, the lower detection threshold for an edge,
         //the higher detection threshold, the Aperture (blurring) of the image - higher is better
         //for long, smooth edges, and whether a more accurate version (but time-expensive) version
         //should be used (true = more accurate)
-        //Note: the edges are stored in "grayTemp", which is an image where everything
-        //is black except for gray-scale lines delineating the edges.
-        Imgproc.Canny(gray, grayTemp, 0, THRESHOLD_CANNY, APERTURE_CANNY, true);
-        //make the white lines twice as big, while leaving the image size constant
-        Filter.dilate(gray, 2);
+        Imgproc.Canny(mBlurred, mEdges, 0, THRESHOLD_CANNY, APERTURE_CANNY, true);
 
-        List<MatOfPoint> contoursTemp = new ArrayList<>();
         //Find contours - the parameters here are very important to compression and retention
-        //grayTemp is the image from which the contours are found,
-        //contoursTemp is where the resultant contours are stored (note: color is not retained),
-        //cacheHierarchy is the parent-child relationship between the contours (e.g. a contour
-        //inside of another is its child),
         //Imgproc.CV_RETR_LIST disables the hierarchical relationships being returned,
         //Imgproc.CHAIN_APPROX_SIMPLE means that the contour is compressed from a massive chain of
         //paired coordinates to just the endpoints of each segment (e.g. an up-right rectangular
         //contour is encoded with 4 points.)
-        Imgproc.findContours(grayTemp, contoursTemp, cacheHierarchy, Imgproc.CV_RETR_LIST, Imgproc.CHAIN_APPROX_SIMPLE);
-        //MatOfPoint2f means that is a MatofPoint (Matrix of Points) represented by floats instead of ints
-        MatOfPoint2f approx = new MatOfPoint2f();
-        //For each contour, test whether the contour is a rectangle
-        //List<Contour> contours = new ArrayList<>()
+        List<MatOfPoint> contoursTemp = new ArrayList<>();
+        Imgproc.findContours(mEdges, contoursTemp, mHierarchy, Imgproc.CV_RETR_LIST, Imgproc.CHAIN_APPROX_SIMPLE);
+
+        List<Contour> polygons = new ArrayList<>();
         for (MatOfPoint co : contoursTemp) {
-            //converting the MatOfPoint to MatOfPoint2f
-            MatOfPoint2f matOfPoint2f = new MatOfPoint2f(co.toArray());
-            //converting the matrix to a Contour
-            Contour c = new Contour(co);
+            //Reject contours that are too short or too small to hold the polygon before approximating
+            if (co.rows() < sides) {
+                co.release();
+                continue;
+            }
+            Rect bounds = Imgproc.boundingRect(co);
+            co.convertTo(mCurve, CvType.CV_32F);
+            co.release();
+            if ((double) bounds.width * bounds.height < minArea)
+                continue;
 
             //Attempt to fit the contour to the best polygon
-            //input: matOfPoint2f, which is the contour found earlier
-            //output: approx, which is the MatOfPoint2f that holds the new polygon that has less vertices
-            //basically, it smooths out the edges using the third parameter as its approximation accuracy
-            //final parameter determines whether the new approximation must be closed (true=closed)
-            Imgproc.approxPolyDP(matOfPoint2f, approx,
-                    c.arcLength(true) * EPLISON_APPROX_TOLERANCE_FACTOR, true);
-
-            //converting the MatOfPoint2f to a contour
-            Contour approxContour = new Contour(approx);
-
-            //Make sure the contour is big enough, CLOSED (convex), and has exactly 4 points
-            if (approx.toArray().length == 4 &&
-                    Math.abs(approxContour.area()) > 1000 &&
-                    approxContour.isClosed()) {
-
-                //TODO contours and rectangles array may not match up, but why would they?
-                contours.add(approxContour);
-
-                //Check each angle to be approximately 90 degrees
-                //Done by comparing the three points constituting the angle of each corner
-                double maxCosine = 0;
-                for (int j = 2; j < 5; j++) {
-                    double cosine = Math.abs(MathUtil.angle(approx.toArray()[j % 4],
-                            approx.toArray()[j - 2], approx.toArray()[j - 1]));
-                    maxCosine = Math.max(maxCosine, cosine);
-                }
-
-                if (maxCosine < MAX_COSINE_VALUE) {
-                    //Convert the points to a rectangle instance
-                    rectangles.add(new Rectangle(approx.toArray()));
-                }
-            }
+            //The approximation accuracy is a fraction of the perimeter
+            Imgproc.approxPolyDP(mCurve, mApprox, Imgproc.arcLength(mCurve, true) * EPLISON_APPROX_TOLERANCE_FACTOR, true);
+            if (mApprox.rows() != sides)
+                continue;
+
+            //Copy the vertices once, then test area, convexity and angles on them
+            mApprox.get(0, 0, vertices);
+            if (!isConvexPolygon(vertices, sides, minArea, expectedCosine, maxCosineDeviation))
+                continue;
+
+            MatOfPoint polygon = new MatOfPoint();
+            mApprox.convertTo(polygon, CvType.CV_32S);
+            polygons.add(new Contour(polygon));
         }
 
-        return new RectangleLocationResult(contours, rectangles);
+        return new PolygonLocationResult(polygons);
+    }
+
+    /**
+     * Test whether a polygon is convex, large enough, and has the expected corner angles
+     *
+     * @param v     Interleaved x and y vertex coordinates
+     * @param sides Number of vertices
+     */
+    private static boolean isConvexPolygon(float[] v, int sides, double minArea, double expectedCosine,
+                                           double maxCosineDeviation) {
+        double area = 0;
+        int turn = 0;
+        for (int i = 0; i < sides; i++) {
+            int prev = 2 * ((i + sides - 1) % sides);
+            int cur = 2 * i;
+            int next = 2 * ((i + 1) % sides);
+            double dx1 = v[prev] - v[cur];
+            double dy1 = v[prev + 1] - v[cur + 1];
+            double dx2 = v[next] - v[cur];
+            double dy2 = v[next + 1] - v[cur + 1];
+
+            //Every corner must turn the same way
+            double cross = dx1 * dy2 - dy1 * dx2;
+            int sign = cross > 0 ? 1 : cross < 0 ? -1 : 0;
+            if (sign == 0 || (turn != 0 && sign != turn))
+                return false;
+            turn = sign;
+
+            //Cosine of the corner, as in MathUtil.angle()
+            double cosine = (dx1 * dx2 + dy1 * dy2) / Math.sqrt((dx1 * dx1 + dy1 * dy1) * (dx2 * dx2 + dy2 * dy2) + 1e-10);
+            if (Math.abs(cosine - expectedCosine) >= maxCosineDeviation)
+                return false;
+
+            area += v[cur] * v[next + 1] - v[next] * v[cur + 1];
+        }
+        return Math.abs(area) / 2 > minArea;
+    }
+
+    /**
+     * Contains the list of polygons retrieved from locatePolygons()
+     */
+    public static class PolygonLocationResult {
+        final List<Contour> polygons;
+
+        PolygonLocationResult(List<Contour> polygons) {
+            this.polygons = polygons;
+        }
+
+        /**
+         * Gets list of polygons detected in the image, as contours with one point per vertex
+         *
+         * @return List of polygons detected in the image
+         */
+        public List<Contour> getPolygons() {
+            return polygons;
+        }
     }
 
     /**
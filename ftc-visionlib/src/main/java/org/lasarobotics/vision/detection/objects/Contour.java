@@ -9,16 +9,27 @@ import org.opencv.core.MatOfPoint2f;
 import org.opencv.core.Point;
 import org.opencv.core.Rect;
 import org.opencv.core.Size;
-import org.opencv.imgproc.Imgproc;
 
 /**
  * Implements a single contour (MatOfPoint) with advanced measurement utilities
+ * <p/>
+ * The points are copied out of the matrix once, on first use, and all measurements are computed
+ * in Java on that copy. Changes made directly to the matrix returned by getData() are not seen.
+ * Measurements are computed when first requested and cached until the contour is offset.
  */
 public class Contour extends Detectable {
 
     private final MatOfPoint mat;
+    //Interleaved x, y coordinates, copied from the matrix on first use
+    private int[] points = null;
     private Point topLeft = null;
     private Size size = null;
+    //Cached measurements, NaN or null until computed
+    private Point centroid = null;
+    private double area = Double.NaN;
+    private double arcLengthOpen = Double.NaN;
+    private double arcLengthClosed = Double.NaN;
+    private Boolean convex = null;
 
     /**
      * Instantiate a contour from an OpenCV matrix of points (float)
@@ -38,30 +49,41 @@ public class Contour extends Detectable {
         this.mat = new MatOfPoint(data.toArray());
     }
 
+    private int[] points() {
+        if (points == null) {
+            int count = mat.rows();
+            points = new int[count * 2];
+            if (count > 0)
+                mat.get(0, 0, points);
+        }
+        return points;
+    }
+
     private void calculate() {
         if (topLeft != null)
             return;
 
         //Calculate size and topLeft at the same time
-        double minX = Double.MAX_VALUE;
-        double maxX = Double.MIN_VALUE;
-        double minY = Double.MAX_VALUE;
-        double maxY = Double.MIN_VALUE;
-
-        Point[] points = getPoints();
-        for (Point p : points) {
-            if (p.x < minX) {
-                minX = p.x;
-            }
-            if (p.y < minY) {
-                minY = p.y;
-            }
-            if (p.x > maxX) {
-                maxX = p.x;
-            }
-            if (p.y > maxY) {
-                maxY = p.y;
-            }
+        int[] p = points();
+        if (p.length == 0) {
+            size = new Size(0, 0);
+            topLeft = new Point(0, 0);
+            return;
+        }
+
+        int minX = p[0];
+        int maxX = p[0];
+        int minY = p[1];
+        int maxY = p[1];
+        for (int i = 2; i < p.length; i += 2) {
+            if (p[i] < minX)
+                minX = p[i];
+            else if (p[i] > maxX)
+                maxX = p[i];
+            if (p[i + 1] < minY)
+                minY = p[i + 1];
+            else if (p[i + 1] > maxY)
+                maxY = p[i + 1];
         }
 
         size = new Size(maxX - minX, maxY - minY);
@@ -83,7 +105,15 @@ public class Contour extends Detectable {
      * @return OpenCV matrix of points
      */
     public MatOfPoint2f getDoubleData() {
-        return new MatOfPoint2f(mat.toArray());
+        int[] p = points();
+        float[] data = new float[p.length];
+        for (int i = 0; i < p.length; i++)
+            data[i] = p[i];
+        MatOfPoint2f result = new MatOfPoint2f();
+        result.alloc(p.length / 2);
+        if (p.length > 0)
+            result.put(0, 0, data);
+        return result;
     }
 
     /**
@@ -92,35 +122,91 @@ public class Contour extends Detectable {
      * @return Number of points, i.e. length
      */
     public int count() {
-        return getData().rows();
+        return points().length / 2;
     }
 
     /**
      * Get the area of the contour
      * <p/>
-     * A highly precise method that integrates the contour with respect to its arc length.
+     * Computed with the shoelace formula, as in Imgproc.contourArea().
      *
      * @return Area of the contour
      */
     public double area() {
-        return Imgproc.contourArea(mat);
+        if (Double.isNaN(area))
+            area = calculateArea();
+        return area;
+    }
+
+    private double calculateArea() {
+        int[] p = points();
+        if (p.length < 6)
+            return 0;
+
+        //Twice the signed area, closing the polygon from the last point to the first
+        long sum = 0;
+        int n = p.length;
+        for (int i = 0; i < n; i += 2) {
+            int j = (i + 2) % n;
+            sum += (long) p[i] * p[j + 1] - (long) p[j] * p[i + 1];
+        }
+        return Math.abs(sum) / 2.0;
     }
 
     /**
      * Tests if the contour is closed (convex)
+     * Gives the same result as Imgproc.isContourConvex(), so contours with collinear or repeated points are not convex.
      *
      * @return True if closed (convex), false otherwise
      */
     public boolean isClosed() {
-        return Imgproc.isContourConvex(mat);
+        if (convex == null)
+            convex = calculateConvex();
+        return convex;
+    }
+
+    private boolean calculateConvex() {
+        int[] p = points();
+        int n = p.length;
+        if (n == 0)
+            return false;
+
+        //Same rule as Imgproc.isContourConvex(): every turn, including the one at the first point,
+        //must be in the same direction, and a straight or zero-length edge is not convex
+        int count = n / 2;
+        int previous = ((count - 2 + count) % count) * 2;
+        int current = (count - 1) * 2;
+        long dx0 = p[current] - p[previous];
+        long dy0 = p[current + 1] - p[previous + 1];
+        int orientation = 0;
+        for (int i = 0; i < n; i += 2) {
+            long dx = p[i] - p[current];
+            long dy = p[i + 1] - p[current + 1];
+            long dxdy0 = dx * dy0;
+            long dydx0 = dy * dx0;
+            orientation |= dydx0 > dxdy0 ? 1 : (dydx0 < dxdy0 ? 2 : 3);
+            if (orientation == 3)
+                return false;
+            dx0 = dx;
+            dy0 = dy;
+            current = i;
+        }
+        return true;
     }
 
     /**
      * Get the centroid of the object (a weighted center)
+     * The returned point must not be modified.
      *
      * @return Centroid of the object as a point
      */
     public Point centroid() {
+        if (centroid == null)
+            centroid = calculateCentroid();
+        return centroid;
+    }
+
+    private Point calculateCentroid() {
         //C_{\mathrm x} = \frac{1}{6A}\sum_{i=0}^{n-1}(x_i+x_{i+1})(x_i\ y_{i+1} - x_{i+1}\ y_i)
         //C_{\mathrm y} = \frac{1}{6A}\sum_{i=0}^{n-1}(y_i+y_{i+1})(x_i\ y_{i+1} - x_{i+1}\ y_i)
 
@@ -130,13 +216,15 @@ public class Contour extends Detectable {
         double xSum = 0.0;
         double ySum = 0.0;
         double area = 0.0;
-        Point[] points = this.getPoints();
+        int[] p = points();
+        int n = p.length;
 
-        for (int i = 0; i < points.length - 1; i++) {
+        for (int i = 0; i < n; i += 2) {
+            int j = (i + 2) % n;
             //cross product, (signed) double area of triangle of vertices (origin,p0,p1)
-            double signedArea = (points[i].x * points[i + 1].y) - (points[i + 1].x * points[i].y);
-            xSum += (points[i].x + points[i + 1].x) * signedArea;
-            ySum += (points[i].y + points[i + 1].y) * signedArea;
+            double signedArea = ((double) p[i] * p[j + 1]) - ((double) p[j] * p[i + 1]);
+            xSum += (p[i] + p[j]) * signedArea;
+            ySum += (p[i + 1] + p[j + 1]) * signedArea;
             area += signedArea;
         }
 
@@ -147,6 +235,30 @@ public class Contour extends Detectable {
         return new Point(xSum / coefficient, ySum / coefficient);
     }
 
+    /**
+     * Test whether a point lies inside the contour
+     *
+     * @param point Point to test
+     * @return True if the point is inside the contour, false otherwise
+     */
+    public boolean contains(Point point) {
+        calculate();
+        if (point.x < topLeft.x || point.y < topLeft.y ||
+                point.x > topLeft.x + size.width || point.y > topLeft.y + size.height)
+            return false;
+
+        //Cast a ray to the right and count the edges it crosses
+        int[] p = points();
+        int n = p.length;
+        boolean inside = false;
+        for (int i = 0, j = n - 2; i < n; j = i, i += 2) {
+            if ((p[i + 1] > point.y) != (p[j + 1] > point.y) &&
+                    point.x < (double) (p[j] - p[i]) * (point.y - p[i + 1]) / (p[j + 1] - p[i + 1]) + p[i])
+                inside = !inside;
+        }
+        return inside;
+    }
+
     /**
      * Get the center of the object
      *
@@ -193,7 +305,7 @@ public class Contour extends Detectable {
      * @return Returns an OpenCV rectangle
      */
     public Rect getBoundingRect() {
-        return new Rect((int) top(), (int) left(), (int) width(), (int) height());
+        return new Rect((int) left(), (int) top(), (int) width(), (int) height());
     }
 
     /**
@@ -237,12 +349,22 @@ public class Contour extends Detectable {
      */
     @Override
     public void offset(Point offset) {
-        Point[] points = this.getPoints();
-
-        for (int i = 0; i < points.length; i++)
-            points[i] = new Point(points[i].x + offset.x, points[i].y + offset.y);
-
-        mat.fromArray(points);
+        int[] p = points();
+        for (int i = 0; i < p.length; i += 2) {
+            p[i] = (int) (p[i] + offset.x);
+            p[i + 1] = (int) (p[i + 1] + offset.y);
+        }
+        if (p.length > 0)
+            mat.put(0, 0, p);
+
+        //Forget all cached measurements
+        topLeft = null;
+        size = null;
+        centroid = null;
+        area = Double.NaN;
+        arcLengthOpen = Double.NaN;
+        arcLengthClosed = Double.NaN;
+        convex = null;
     }
 
     /**
@@ -263,15 +385,27 @@ public class Contour extends Detectable {
      * @return Arc length
      */
     public double arcLength(boolean closed) {
-        return Imgproc.arcLength(getDoubleData(), closed);
+        if (closed) {
+            if (Double.isNaN(arcLengthClosed))
+                arcLengthClosed = calculateArcLength(true);
+            return arcLengthClosed;
+        }
+        if (Double.isNaN(arcLengthOpen))
+            arcLengthOpen = calculateArcLength(false);
+        return arcLengthOpen;
     }
 
-    /**
-     * Get the point array of the contour
-     *
-     * @return Point array of contour
-     */
-    private Point[] getPoints() {
-        return mat.toArray();
+    private double calculateArcLength(boolean closed) {
+        int[] p = points();
+        int n = p.length;
+        if (n < 4)
+            return 0;
+
+        double length = 0;
+        for (int i = 0; i < n - 2; i += 2)
+            length += Math.hypot(p[i + 2] - p[i], p[i + 3] - p[i + 1]);
+        if (closed)
+            length += Math.hypot(p[0] - p[n - 2], p[1] - p[n - 1]);
+        return length;
     }
 }
@@ -10,9 +10,17 @@ import org.opencv.core.Size;
 
 /**
  * Implements a single ellipse (acts like RotatedRect) with advanced measurement utilities
+ * <p/>
+ * Measurements are computed when first requested and cached, so the rectangle returned by getRect()
+ * must not be modified.
  */
 public class Ellipse extends Detectable implements Comparable<Ellipse> {
     private RotatedRect rect;
+    //Cached measurements, NaN or null until computed
+    private double area = Double.NaN;
+    private double eccentricity = Double.NaN;
+    private Ellipse scaled = null;
+    private double scaledFactor = Double.NaN;
 
     /**
      * Instantiate a null ellipse
@@ -61,6 +69,8 @@ public class Ellipse extends Detectable implements Comparable<Ellipse> {
     public void offset(Point offset) {
         this.rect = new RotatedRect(new Point(rect.center.x + offset.x, rect.center.y + offset.y),
                 rect.size, rect.angle);
+        //The size is unchanged, but the scaled ellipse has moved
+        scaled = null;
     }
 
     public double width() {
@@ -107,7 +117,9 @@ public class Ellipse extends Detectable implements Comparable<Ellipse> {
      * @return Area = semi-major axis * semi-minor axis * PI
      */
     public double area() {
-        return semiMajorAxis() * semiMinorAxis() * Math.PI;
+        if (Double.isNaN(area))
+            area = semiMajorAxis() * semiMinorAxis() * Math.PI;
+        return area;
     }
 
     /**
@@ -157,13 +169,18 @@ public class Ellipse extends Detectable implements Comparable<Ellipse> {
 
     /**
      * Scale this ellipse by a scaling factor about its center
+     * The result for the last factor is cached, so the returned ellipse must not be modified.
      *
      * @param factor Scaling factor, 1 for no scale, less than one to contract, greater than one to expand
      */
     public Ellipse scale(double factor) {
+        if (scaled != null && factor == scaledFactor)
+            return scaled;
         RotatedRect r = rect.clone();
         r.size = new Size(factor * rect.size.width, factor * rect.size.height);
-        return new Ellipse(r);
+        scaled = new Ellipse(r);
+        scaledFactor = factor;
+        return scaled;
     }
 
     /**
@@ -172,7 +189,9 @@ public class Ellipse extends Detectable implements Comparable<Ellipse> {
      * @return e = sqrt(1-(b^2/a^2)), where a=semi-major axis and b=semi-minor axis
      */
     public double eccentricity() {
-        return Math.sqrt(1 - (semiMinorAxis() * semiMinorAxis()) / (semiMajorAxis() * semiMajorAxis()));
+        if (Double.isNaN(eccentricity))
+            eccentricity = Math.sqrt(1 - (semiMinorAxis() * semiMinorAxis()) / (semiMajorAxis() * semiMajorAxis()));
+        return eccentricity;
     }
 
     /**
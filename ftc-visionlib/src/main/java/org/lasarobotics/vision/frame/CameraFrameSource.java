@@ -0,0 +1,178 @@
+/*
+ * Copyright (c) 2016 Arthur Pachachura, LASA Robotics, and contributors
+ * MIT licensed
+ */
+package org.lasarobotics.vision.frame;
+
+import android.app.Activity;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.LinearLayout;
+
+import org.lasarobotics.vision.android.Cameras;
+import org.opencv.android.CameraBridgeViewBase;
+import org.opencv.android.JavaCameraView;
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Frame source that reads a device camera through a JavaCameraView
+ * <p/>
+ * The camera delivers frames on its own thread. grab() waits for the next one, so frames are
+ * processed on the thread calling grab() and the camera is never held up; frames that arrive
+ * while the previous one is being processed are dropped. The preview shows unprocessed frames.
+ * OpenCV must be loaded before the source is opened.
+ */
+public final class CameraFrameSource implements FrameSource, CameraBridgeViewBase.CvCameraViewListener2 {
+    private final Activity activity;
+    private final Cameras camera;
+    private final int maxWidth;
+    private final int maxHeight;
+    private final FrameMailbox mailbox = new FrameMailbox();
+    private JavaCameraView view = null;
+    private FrameMailbox.Entry frame = null;
+
+    /**
+     * Create a source reading a camera at up to 1200x1200
+     *
+     * @param activity Activity that hosts the camera view
+     * @param camera   Camera to read
+     */
+    public CameraFrameSource(Activity activity, Cameras camera) {
+        this(activity, camera, 1200, 1200);
+    }
+
+    /**
+     * Create a source reading a camera
+     *
+     * @param activity  Activity that hosts the camera view
+     * @param camera    Camera to read
+     * @param maxWidth  Maximum frame width in pixels
+     * @param maxHeight Maximum frame height in pixels
+     */
+    public CameraFrameSource(Activity activity, Cameras camera, int maxWidth, int maxHeight) {
+        this.activity = activity;
+        this.camera = camera;
+        this.maxWidth = maxWidth;
+        this.maxHeight = maxHeight;
+    }
+
+    @Override
+    public void open() {
+        if (view != null)
+            return;
+        mailbox.open();
+
+        //Views must be created and connected on the UI thread
+        final boolean[] connected = new boolean[1];
+        runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                LinearLayout layout = new LinearLayout(activity);
+                layout.setOrientation(LinearLayout.VERTICAL);
+                layout.setLayoutParams(new LinearLayout.LayoutParams(
+                        ViewGroup.LayoutParams.WRAP_CONTENT, ViewGroup.LayoutParams.WRAP_CONTENT));
+
+                view = new JavaCameraView(activity, camera.getID());
+                layout.addView(view);
+                layout.setVisibility(View.VISIBLE);
+
+                view.setCvCameraViewListener(CameraFrameSource.this);
+                view.setMaxFrameSize(maxWidth, maxHeight);
+                view.enableView();
+                connected[0] = view.connectCamera(maxWidth, maxHeight);
+            }
+        });
+
+        if (!connected[0]) {
+            close();
+            throw new IllegalStateException("Could not open camera " + camera.getID() + "!\r\n" +
+                    "CAMERA permission may not be allowed in AndroidManifest.xml,\r\n" +
+                    "or another app may be locking it.");
+        }
+    }
+
+    @Override
+    public Size getFrameSize() {
+        if (view == null)
+            return new Size(0, 0);
+        return new Size(view.getFrameWidth(), view.getFrameHeight());
+    }
+
+    @Override
+    public boolean grab() {
+        if (view == null)
+            return false;
+        try {
+            frame = mailbox.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            frame = null;
+        }
+        return frame != null;
+    }
+
+    @Override
+    public Mat rgba() {
+        return frame.rgba();
+    }
+
+    @Override
+    public Mat gray() {
+        return frame.gray();
+    }
+
+    @Override
+    public void close() {
+        mailbox.close();
+        frame = null;
+        if (view != null) {
+            runOnUiThread(new Runnable() {
+                @Override
+                public void run() {
+                    view.disableView();
+                    view.disconnectCamera();
+                }
+            });
+            view = null;
+        }
+        mailbox.releaseBuffers();
+    }
+
+    private void runOnUiThread(final Runnable runnable) {
+        final CountDownLatch done = new CountDownLatch(1);
+        activity.runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    runnable.run();
+                } finally {
+                    done.countDown();
+                }
+            }
+        });
+        try {
+            done.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void onCameraViewStarted(int width, int height) {
+
+    }
+
+    @Override
+    public void onCameraViewStopped() {
+
+    }
+
+    @Override
+    public Mat onCameraFrame(CameraBridgeViewBase.CvCameraViewFrame inputFrame) {
+        mailbox.post(inputFrame.rgba(), inputFrame.gray());
+        return inputFrame.rgba();
+    }
+}
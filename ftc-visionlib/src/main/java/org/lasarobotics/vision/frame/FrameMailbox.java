@@ -0,0 +1,176 @@
+/*
+ * Copyright (c) 2016 Arthur Pachachura, LASA Robotics, and contributors
+ * MIT licensed
+ */
+package org.lasarobotics.vision.frame;
+
+import org.opencv.core.Mat;
+
+/**
+ * Single-slot, latest-frame-wins handoff of frames from one producer thread to one consumer thread
+ * <p/>
+ * Frames are copied into one of three buffers: one being filled by the producer, one waiting
+ * to be taken, and one held by the consumer. Posting never blocks; a waiting frame that has
+ * not been taken yet is simply replaced by the newer one.
+ */
+public final class FrameMailbox {
+    private final Entry[] entries = new Entry[]{new Entry(), new Entry(), new Entry()};
+    private int ready = -1;
+    private int reading = -1;
+    private long sequence = 0;
+    private long dropped = 0;
+    private boolean closed = false;
+
+    /**
+     * Copy a frame into the mailbox, replacing any frame that has not been taken yet
+     *
+     * @param rgba RGBA frame
+     * @param gray Grayscale frame
+     */
+    public void post(Mat rgba, Mat gray) {
+        post(rgba, gray, 0);
+    }
+
+    /**
+     * Copy a frame into the mailbox with a sequence number given by the producer
+     *
+     * @param rgba     RGBA frame
+     * @param gray     Grayscale frame
+     * @param sequence Sequence number of the frame, or zero to number frames in the order they are posted
+     */
+    public void post(Mat rgba, Mat gray, long sequence) {
+        int slot;
+        synchronized (this) {
+            if (closed)
+                return;
+            slot = 0;
+            while (slot == ready || slot == reading)
+                slot++;
+        }
+
+        //The producer owns this slot until it is published
+        Entry entry = entries[slot];
+        rgba.copyTo(entry.rgba);
+        gray.copyTo(entry.gray);
+
+        synchronized (this) {
+            if (ready != -1)
+                dropped++;
+            entry.sequence = sequence > 0 ? sequence : ++this.sequence;
+            entry.timestamp = System.nanoTime();
+            ready = slot;
+            notifyAll();
+        }
+    }
+
+    /**
+     * Take the latest frame, waiting until one is available
+     * The previously taken frame is released automatically.
+     *
+     * @return Latest frame, or null if the mailbox was closed
+     * @throws InterruptedException If interrupted while waiting
+     */
+    public synchronized Entry take() throws InterruptedException {
+        reading = -1;
+        while (ready == -1 && !closed)
+            wait();
+        if (closed)
+            return null;
+        reading = ready;
+        ready = -1;
+        return entries[reading];
+    }
+
+    /**
+     * Release the frame returned by take() so its buffer may be reused
+     */
+    public synchronized void release() {
+        reading = -1;
+    }
+
+    /**
+     * Close the mailbox, waking up any waiting consumer
+     */
+    public synchronized void close() {
+        closed = true;
+        notifyAll();
+    }
+
+    /**
+     * Reopen the mailbox after it was closed, discarding any waiting frame
+     */
+    public synchronized void open() {
+        closed = false;
+        ready = -1;
+        reading = -1;
+    }
+
+    /**
+     * Get the number of frames that were replaced before being taken
+     *
+     * @return Dropped frame count
+     */
+    public synchronized long getDroppedCount() {
+        return dropped;
+    }
+
+    /**
+     * Release all frame buffers
+     * The mailbox must be closed and no consumer may hold a frame.
+     */
+    public synchronized void releaseBuffers() {
+        for (Entry entry : entries) {
+            entry.rgba.release();
+            entry.gray.release();
+        }
+    }
+
+    /**
+     * A frame held by the mailbox
+     */
+    public static final class Entry {
+        private final Mat rgba = new Mat();
+        private final Mat gray = new Mat();
+        private long sequence;
+        private long timestamp;
+
+        private Entry() {
+        }
+
+        /**
+         * Get the RGBA frame
+         *
+         * @return RGBA frame
+         */
+        public Mat rgba() {
+            return rgba;
+        }
+
+        /**
+         * Get the grayscale frame
+         *
+         * @return Grayscale frame
+         */
+        public Mat gray() {
+            return gray;
+        }
+
+        /**
+         * Get the sequence number of the frame, starting at 1
+         *
+         * @return Sequence number
+         */
+        public long getSequence() {
+            return sequence;
+        }
+
+        /**
+         * Get the time the frame was posted
+         *
+         * @return Timestamp from System.nanoTime()
+         */
+        public long getTimestamp() {
+            return timestamp;
+        }
+    }
+}
@@ -0,0 +1,21 @@
+/*
+ * Copyright (c) 2016 Arthur Pachachura, LASA Robotics, and contributors
+ * MIT licensed
+ */
+package org.lasarobotics.vision.frame;
+
+import org.opencv.core.Mat;
+
+/**
+ * Receives frames from a frame source
+ */
+public interface FrameProcessor {
+    /**
+     * Process a single frame
+     *
+     * @param rgba RGBA frame, which may be modified
+     * @param gray Grayscale frame
+     * @return The frame to display
+     */
+    Mat frame(Mat rgba, Mat gray);
+}
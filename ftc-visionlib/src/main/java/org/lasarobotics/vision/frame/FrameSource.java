@@ -0,0 +1,57 @@
+/*
+ * Copyright (c) 2016 Arthur Pachachura, LASA Robotics, and contributors
+ * MIT licensed
+ */
+package org.lasarobotics.vision.frame;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+
+/**
+ * A source of frames for the vision pipeline, such as a recording or a generator
+ * <p/>
+ * The matrices returned by rgba() and gray() belong to the source and are only valid
+ * until the next call to grab() or close().
+ */
+public interface FrameSource {
+    /**
+     * Open the source and allocate its frame buffers
+     *
+     * @throws IllegalStateException If the source cannot be opened
+     */
+    void open();
+
+    /**
+     * Get the size of the frames produced by this source
+     *
+     * @return Frame size in pixels
+     */
+    Size getFrameSize();
+
+    /**
+     * Advance to the next frame
+     * A source that waits for frames must stop waiting and return false when the thread is interrupted.
+     *
+     * @return True if a new frame is available, false if the source is exhausted or interrupted
+     */
+    boolean grab();
+
+    /**
+     * Get the current frame as an RGBA image
+     *
+     * @return RGBA frame (CV_8UC4)
+     */
+    Mat rgba();
+
+    /**
+     * Get the current frame as a grayscale image
+     *
+     * @return Grayscale frame (CV_8UC1)
+     */
+    Mat gray();
+
+    /**
+     * Close the source and release its frame buffers
+     */
+    void close();
+}
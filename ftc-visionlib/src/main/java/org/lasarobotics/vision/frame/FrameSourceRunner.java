@@ -0,0 +1,167 @@
+/*
+ * Copyright (c) 2016 Arthur Pachachura, LASA Robotics, and contributors
+ * MIT licensed
+ */
+package org.lasarobotics.vision.frame;
+
+import org.lasarobotics.vision.util.FPS;
+
+/**
+ * Drives a frame processor from a frame source on a plain thread, without a camera or UI
+ * <p/>
+ * Frames are delivered as fast as possible unless a target frame rate is set.
+ */
+public final class FrameSourceRunner implements Runnable {
+    private final FrameSource source;
+    private final FrameProcessor processor;
+    private final FPS fps = new FPS();
+    private volatile boolean running = false;
+    private boolean opened = false;
+    private volatile long frameCount = 0;
+    private long framePeriodNanos = 0;
+    private Thread thread = null;
+
+    /**
+     * Create a runner that feeds frames from a source into a processor
+     *
+     * @param source    Frame source
+     * @param processor Frame processor
+     */
+    public FrameSourceRunner(FrameSource source, FrameProcessor processor) {
+        this.source = source;
+        this.processor = processor;
+    }
+
+    /**
+     * Limit the rate at which frames are delivered
+     *
+     * @param fps Target frames per second, or zero to run as fast as possible
+     */
+    public void setTargetFPS(double fps) {
+        framePeriodNanos = fps > 0 ? (long) (1e9 / fps) : 0;
+    }
+
+    /**
+     * Open the source, if it is not already open
+     * Useful to read the frame size before frames are delivered.
+     */
+    public synchronized void open() {
+        if (opened)
+            return;
+        source.open();
+        opened = true;
+    }
+
+    /**
+     * Open the source and start delivering frames on a new thread
+     */
+    public synchronized void start() {
+        if (thread != null)
+            return;
+        open();
+        running = true;
+        thread = new Thread(this, "FTCVision Frame Source");
+        thread.start();
+    }
+
+    /**
+     * Stop delivering frames, wait for the current frame to finish, and close the source
+     * The runner thread is interrupted, so a source waiting in grab() for a frame that never comes
+     * gives up instead of blocking this call.
+     */
+    public synchronized void stop() {
+        running = false;
+        if (thread != null && thread != Thread.currentThread()) {
+            thread.interrupt();
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        thread = null;
+        if (opened) {
+            source.close();
+            opened = false;
+        }
+    }
+
+    /**
+     * Open the source if needed and process frames on the calling thread
+     *
+     * @param maxFrames Maximum number of frames to process
+     * @return Number of frames processed, which is lower than maxFrames if the source ran out
+     */
+    public int runFrames(int maxFrames) {
+        open();
+        int count = 0;
+        while (count < maxFrames && source.grab()) {
+            deliver();
+            count++;
+        }
+        return count;
+    }
+
+    @Override
+    public void run() {
+        while (running && source.grab()) {
+            long start = System.nanoTime();
+            deliver();
+
+            //Sleep off the rest of the frame period, if limited
+            if (framePeriodNanos > 0) {
+                long remaining = framePeriodNanos - (System.nanoTime() - start);
+                if (remaining > 0) {
+                    try {
+                        Thread.sleep(remaining / 1000000L, (int) (remaining % 1000000L));
+                    } catch (InterruptedException e) {
+                        break;
+                    }
+                }
+            }
+        }
+        running = false;
+    }
+
+    private void deliver() {
+        fps.update();
+        processor.frame(source.rgba(), source.gray());
+        frameCount++;
+    }
+
+    /**
+     * Returns whether frames are currently being delivered on the runner thread
+     *
+     * @return True if running, false if stopped or the source is exhausted
+     */
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Get the number of frames delivered so far
+     *
+     * @return Number of frames delivered
+     */
+    public long getFrameCount() {
+        return frameCount;
+    }
+
+    /**
+     * Get the delivery rate of frames, including processing time
+     *
+     * @return Frames per second, as a 0.00 decimal string
+     */
+    public String getFPSString() {
+        return fps.getFPSString();
+    }
+
+    /**
+     * Get the frame source
+     *
+     * @return Frame source
+     */
+    public FrameSource getSource() {
+        return source;
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2016 Arthur Pachachura, LASA Robotics, and contributors
+ * MIT licensed
+ */
+package org.lasarobotics.vision.frame;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.imgcodecs.Imgcodecs;
+import org.opencv.imgproc.Imgproc;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Frame source that plays back a directory of still images in file name order
+ * <p/>
+ * All images are decoded when the source is opened so that disk access does not
+ * count towards frame time. Every image must have the same size.
+ */
+public final class ImageDirectorySource implements FrameSource {
+    private static final String[] EXTENSIONS = {".png", ".jpg", ".jpeg", ".bmp"};
+
+    private final File directory;
+    private final boolean loop;
+    private final List<Mat> images = new ArrayList<>();
+    private final Mat rgba = new Mat();
+    private final Mat gray = new Mat();
+    private Size size = new Size();
+    private int index = 0;
+
+    /**
+     * Create a source from a directory of images
+     *
+     * @param directory Directory containing PNG, JPEG or BMP images
+     * @param loop      True to restart from the first image once all have been played
+     */
+    public ImageDirectorySource(File directory, boolean loop) {
+        this.directory = directory;
+        this.loop = loop;
+    }
+
+    @Override
+    public void open() {
+        File[] files = directory.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                String lower = name.toLowerCase(Locale.US);
+                for (String ext : EXTENSIONS)
+                    if (lower.endsWith(ext))
+                        return true;
+                return false;
+            }
+        });
+        if (files == null || files.length == 0)
+            throw new IllegalStateException("No images found in " + directory.getAbsolutePath());
+        Arrays.sort(files);
+
+        for (File file : files) {
+            Mat bgr = Imgcodecs.imread(file.getAbsolutePath());
+            if (bgr.empty())
+                throw new IllegalStateException("Could not read image " + file.getAbsolutePath());
+            if (images.size() > 0 && !bgr.size().equals(size))
+                throw new IllegalStateException("Image " + file.getName() + " is not " +
+                        (int) size.width + "x" + (int) size.height);
+
+            Mat image = new Mat();
+            Imgproc.cvtColor(bgr, image, Imgproc.COLOR_BGR2RGBA);
+            bgr.release();
+            images.add(image);
+            size = image.size();
+        }
+        index = 0;
+    }
+
+    @Override
+    public Size getFrameSize() {
+        return size;
+    }
+
+    @Override
+    public boolean grab() {
+        if (images.size() == 0)
+            return false;
+        if (index >= images.size()) {
+            if (!loop)
+                return false;
+            index = 0;
+        }
+
+        //Copy so that the pipeline may draw on the frame without damaging the original
+        images.get(index++).copyTo(rgba);
+        Imgproc.cvtColor(rgba, gray, Imgproc.COLOR_RGBA2GRAY);
+        return true;
+    }
+
+    @Override
+    public Mat rgba() {
+        return rgba;
+    }
+
+    @Override
+    public Mat gray() {
+        return gray;
+    }
+
+    @Override
+    public void close() {
+        for (Mat image : images)
+            image.release();
+        images.clear();
+        rgba.release();
+        gray.release();
+    }
+}
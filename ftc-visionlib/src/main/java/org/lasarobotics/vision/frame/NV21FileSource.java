@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2016 Arthur Pachachura, LASA Robotics, and contributors
+ * MIT licensed
+ */
+package org.lasarobotics.vision.frame;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * Frame source that plays back a raw dump of NV21 camera preview frames
+ * <p/>
+ * The file is a plain concatenation of frames as delivered by the camera, each
+ * width * height * 3 / 2 bytes long. The Y plane is used directly as the gray image,
+ * just like JavaCameraView.
+ */
+public final class NV21FileSource implements FrameSource {
+    private final File file;
+    private final int width;
+    private final int height;
+    private final boolean loop;
+    private final byte[] buffer;
+    private RandomAccessFile input = null;
+    private Mat yuv = null;
+    private Mat gray = null;
+    private Mat rgba = null;
+
+    /**
+     * Create a source from a raw NV21 dump
+     *
+     * @param file   File containing the frames
+     * @param width  Frame width in pixels
+     * @param height Frame height in pixels
+     * @param loop   True to restart from the first frame at the end of the file
+     */
+    public NV21FileSource(File file, int width, int height, boolean loop) {
+        this.file = file;
+        this.width = width;
+        this.height = height;
+        this.loop = loop;
+        this.buffer = new byte[width * height * 3 / 2];
+    }
+
+    @Override
+    public void open() {
+        try {
+            input = new RandomAccessFile(file, "r");
+            if (input.length() < buffer.length)
+                throw new IllegalStateException(file.getAbsolutePath() + " does not contain a full " +
+                        width + "x" + height + " NV21 frame");
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not open " + file.getAbsolutePath(), e);
+        }
+        yuv = new Mat(height + height / 2, width, CvType.CV_8UC1);
+        gray = yuv.submat(0, height, 0, width);
+        rgba = new Mat();
+    }
+
+    @Override
+    public Size getFrameSize() {
+        return new Size(width, height);
+    }
+
+    @Override
+    public boolean grab() {
+        if (input == null)
+            return false;
+        try {
+            if (input.length() - input.getFilePointer() < buffer.length) {
+                if (!loop)
+                    return false;
+                input.seek(0);
+            }
+            input.readFully(buffer);
+        } catch (IOException e) {
+            return false;
+        }
+
+        yuv.put(0, 0, buffer);
+        Imgproc.cvtColor(yuv, rgba, Imgproc.COLOR_YUV2RGBA_NV21, 4);
+        return true;
+    }
+
+    @Override
+    public Mat rgba() {
+        return rgba;
+    }
+
+    @Override
+    public Mat gray() {
+        return gray;
+    }
+
+    @Override
+    public void close() {
+        if (input != null) {
+            try {
+                input.close();
+            } catch (IOException ignored) {
+            }
+            input = null;
+        }
+        if (yuv != null) {
+            gray.release();
+            yuv.release();
+            rgba.release();
+            yuv = null;
+        }
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright (c) 2016 Arthur Pachachura, LASA Robotics, and contributors
+ * MIT licensed
+ */
+package org.lasarobotics.vision.frame;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * Frame source that draws every frame with a generator
+ * <p/>
+ * The default generator draws a red/blue beacon with two buttons that drifts slowly
+ * across a gray background, which is enough to exercise the beacon pipeline.
+ */
+public final class SyntheticFrameSource implements FrameSource {
+    private final int width;
+    private final int height;
+    private final int frameLimit;
+    private final Generator generator;
+    private Mat rgba = null;
+    private Mat gray = null;
+    private int frameNumber = 0;
+
+    /**
+     * Create an endless source of synthetic beacon frames
+     *
+     * @param width  Frame width in pixels
+     * @param height Frame height in pixels
+     */
+    public SyntheticFrameSource(int width, int height) {
+        this(width, height, 0, new BeaconGenerator());
+    }
+
+    /**
+     * Create a source of generated frames
+     *
+     * @param width      Frame width in pixels
+     * @param height     Frame height in pixels
+     * @param frameLimit Number of frames to generate, or zero for no limit
+     * @param generator  Generator that draws each frame
+     */
+    public SyntheticFrameSource(int width, int height, int frameLimit, Generator generator) {
+        this.width = width;
+        this.height = height;
+        this.frameLimit = frameLimit;
+        this.generator = generator;
+    }
+
+    @Override
+    public void open() {
+        rgba = new Mat(height, width, CvType.CV_8UC4);
+        gray = new Mat(height, width, CvType.CV_8UC1);
+        frameNumber = 0;
+    }
+
+    @Override
+    public Size getFrameSize() {
+        return new Size(width, height);
+    }
+
+    @Override
+    public boolean grab() {
+        if (rgba == null || (frameLimit > 0 && frameNumber >= frameLimit))
+            return false;
+        generator.draw(rgba, frameNumber++);
+        Imgproc.cvtColor(rgba, gray, Imgproc.COLOR_RGBA2GRAY);
+        return true;
+    }
+
+    @Override
+    public Mat rgba() {
+        return rgba;
+    }
+
+    @Override
+    public Mat gray() {
+        return gray;
+    }
+
+    @Override
+    public void close() {
+        if (rgba != null) {
+            rgba.release();
+            gray.release();
+            rgba = null;
+            gray = null;
+        }
+    }
+
+    /**
+     * Draws synthetic frames
+     */
+    public interface Generator {
+        /**
+         * Draw a frame, overwriting every pixel
+         *
+         * @param rgba        RGBA image to draw into
+         * @param frameNumber Number of the frame, starting at zero
+         */
+        void draw(Mat rgba, int frameNumber);
+    }
+
+    /**
+     * Draws a red (left) and blue (right) beacon that moves horizontally over time
+     */
+    public static final class BeaconGenerator implements Generator {
+        private static final Scalar BACKGROUND = new Scalar(90, 90, 90, 255);
+        private static final Scalar RED = new Scalar(220, 30, 30, 255);
+        private static final Scalar BLUE = new Scalar(30, 60, 220, 255);
+        private static final Scalar BUTTON = new Scalar(20, 20, 20, 255);
+
+        @Override
+        public void draw(Mat rgba, int frameNumber) {
+            double w = rgba.cols();
+            double h = rgba.rows();
+            double beaconWidth = w * 0.4;
+            double beaconHeight = h * 0.3;
+            double drift = Math.sin(frameNumber * 0.05) * w * 0.2;
+            double left = (w - beaconWidth) / 2 + drift;
+            double top = (h - beaconHeight) / 2;
+            double half = beaconWidth / 2;
+            int radius = (int) Math.max(2, Math.min(half, beaconHeight) * 0.2);
+
+            rgba.setTo(BACKGROUND);
+            Imgproc.rectangle(rgba, new Point(left, top), new Point(left + half, top + beaconHeight), RED, -1);
+            Imgproc.rectangle(rgba, new Point(left + half, top), new Point(left + beaconWidth, top + beaconHeight), BLUE, -1);
+            Imgproc.circle(rgba, new Point(left + half / 2, top + beaconHeight * 0.75), radius, BUTTON, -1);
+            Imgproc.circle(rgba, new Point(left + half * 1.5, top + beaconHeight * 0.75), radius, BUTTON, -1);
+        }
+    }
+}
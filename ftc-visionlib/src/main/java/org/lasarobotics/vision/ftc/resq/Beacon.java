@@ -7,6 +7,11 @@
 package org.lasarobotics.vision.ftc.resq;
 
 import org.lasarobotics.vision.detection.ColorBlobDetector;
+import org.lasarobotics.vision.detection.EllipseLocator;
+import org.lasarobotics.vision.detection.EllipseTileCache;
+import org.lasarobotics.vision.detection.MultiColorBlobDetector;
+import org.lasarobotics.vision.detection.ParallelEllipseLocator;
+import org.lasarobotics.vision.detection.objects.Contour;
 import org.lasarobotics.vision.detection.objects.Ellipse;
 import org.lasarobotics.vision.detection.objects.Rectangle;
 import org.lasarobotics.vision.util.MathUtil;
@@ -18,23 +23,54 @@ import org.opencv.core.Scalar;
 import org.opencv.core.Size;
 
 import java.text.DecimalFormat;
+import java.util.List;
 
 /**
  * Beacon location and analysis
  */
 public final class Beacon {
 
+    private final ColorBlobDetector blueDetector = new ColorBlobDetector(Constants.COLOR_BLUE_LOWER, Constants.COLOR_BLUE_UPPER);
+    private final ColorBlobDetector redDetector = new ColorBlobDetector(Constants.COLOR_RED_LOWER, Constants.COLOR_RED_UPPER);
+    private final MultiColorBlobDetector detector = new MultiColorBlobDetector();
+    private final EllipseTileCache ellipseCache = new EllipseTileCache();
+    private final EllipseLocator ellipseLocator = new EllipseLocator();
+    private volatile BeaconTracker tracker = null;
+    private ParallelEllipseLocator parallelLocator = null;
+    private volatile boolean debug = false;
+
+    //Settings requested by any thread, applied by the analysis thread at the start of a frame
+    //so that detectors and bounds never change while a frame is being analyzed
+    private volatile boolean settingsChanged = false;
+    private volatile AnalysisMethod requestedMethod;
+    private volatile Rectangle requestedBounds = null;
+    private volatile long requestedDeadlineNanos = 25000000;
+    private volatile ColorBlobDetector.Preset requestedPreset = ColorBlobDetector.Preset.BALANCED;
+    private volatile boolean requestedLookupTable = false;
+    private volatile double requestedToleranceRed = 0;
+    private volatile double requestedToleranceBlue = 0;
+    private volatile int requestedEllipseBands = 1;
+
+    //Settings in use by the analysis thread
     private AnalysisMethod method;
-    private Rectangle bounds;
-    private ColorBlobDetector blueDetector = new ColorBlobDetector(Constants.COLOR_BLUE_LOWER, Constants.COLOR_BLUE_UPPER);
-    private ColorBlobDetector redDetector = new ColorBlobDetector(Constants.COLOR_RED_LOWER, Constants.COLOR_RED_UPPER);
-    private boolean debug = false;
+    private Rectangle bounds = null;
+    private long deadlineNanos = 25000000;
+    private ColorBlobDetector.Preset preset = ColorBlobDetector.Preset.BALANCED;
+    private boolean lookupTable = false;
+    private double toleranceRed = 0;
+    private double toleranceBlue = 0;
+    private int ellipseBands = 1;
+
+    //ANYTIME analysis start and recent cost of each refining stage
+    private long frameStart = 0;
+    private long fastEstimateNanos = 0;
+    private long complexEstimateNanos = 0;
 
     /**
      * Instantiate a beacon that uses the default method
      */
     public Beacon() {
-        method = AnalysisMethod.DEFAULT;
+        this(AnalysisMethod.DEFAULT);
     }
 
     /**
@@ -43,7 +79,7 @@ public final class Beacon {
      * @param method Analysis method
      */
     public Beacon(AnalysisMethod method) {
-        this.method = method;
+        this(method, null);
     }
 
     /**
@@ -52,8 +88,8 @@ public final class Beacon {
      * @param method Analysis method
      */
     public Beacon(AnalysisMethod method, Rectangle bounds) {
-        this.method = method;
-        this.bounds = bounds;
+        this.method = this.requestedMethod = method;
+        this.bounds = this.requestedBounds = bounds;
     }
 
     private static double[] getColorWithTolerance(double[] color, double tolerance) {
@@ -100,22 +136,90 @@ public final class Beacon {
      * @return Beacon analysis class
      */
     public BeaconAnalysis analyzeFrame(ColorBlobDetector redDetector, ColorBlobDetector blueDetector, Mat img, Mat gray, ScreenOrientation orientation) {
+        frameStart = System.nanoTime();
+        applyEllipseBands();
+        applySettings();
         if (this.bounds == null)
             this.bounds = new Rectangle(img.size());
+        //Read once, since tracking may be disabled from another thread meanwhile
+        BeaconTracker tracker = this.tracker;
+        if (tracker == null)
+            return analyzeWindow(redDetector, blueDetector, img, gray, orientation, null);
+
+        //Search around the predicted location, then the whole frame if the beacon was lost
+        Rectangle window = tracker.predict(img.size());
+        BeaconAnalysis analysis = analyzeWindow(redDetector, blueDetector, img, gray, orientation, window);
+        if (window != null && !analysis.isBeaconFound())
+            analysis = analyzeWindow(redDetector, blueDetector, img, gray, orientation, null);
+        return tracker.update(analysis);
+    }
+
+    private BeaconAnalysis analyzeWindow(ColorBlobDetector redDetector, ColorBlobDetector blueDetector, Mat img, Mat gray,
+                                         ScreenOrientation orientation, Rectangle window) {
+        BeaconAnalysis analysis;
         switch (method) {
             case REALTIME:
-                blueDetector.process(img);
-                redDetector.process(img);
-                return BeaconAnalyzer.analyze_REALTIME(redDetector.getContours(), blueDetector.getContours(), img, orientation, this.debug);
+                detector.process(img, window, redDetector, blueDetector);
+                analysis = BeaconAnalyzer.analyze_REALTIME(redDetector.getContours(), blueDetector.getContours(), img, orientation, this.debug);
+                return analysis.withStage(AnalysisMethod.REALTIME);
             case FAST:
             case DEFAULT:
             default:
-                return BeaconAnalyzer.analyze_FAST(redDetector, blueDetector, img, gray, orientation, this.bounds, this.debug);
+                analysis = BeaconAnalyzer.analyze_FAST(detector, redDetector, blueDetector, ellipseLocator, img, gray, orientation, this.bounds, window, this.debug);
+                return analysis.withStage(AnalysisMethod.FAST);
             case COMPLEX:
-                blueDetector.process(img);
-                redDetector.process(img);
-                return BeaconAnalyzer.analyze_COMPLEX(redDetector.getContours(), blueDetector.getContours(), img, gray, orientation, this.bounds, this.debug);
+                detector.process(img, window, redDetector, blueDetector);
+                analysis = BeaconAnalyzer.analyze_COMPLEX(redDetector.getContours(), blueDetector.getContours(), ellipseCache, img, gray, orientation, this.bounds, this.debug);
+                return analysis.withStage(AnalysisMethod.COMPLEX);
+            case ANYTIME:
+                return analyzeAnytime(redDetector, blueDetector, img, gray, orientation, window);
+        }
+    }
+
+    private BeaconAnalysis analyzeAnytime(ColorBlobDetector redDetector, ColorBlobDetector blueDetector, Mat img, Mat gray,
+                                          ScreenOrientation orientation, Rectangle window) {
+        //Detect once, then share the contours between all stages
+        detector.process(img, window, redDetector, blueDetector);
+        List<Contour> contoursRed = redDetector.getContours();
+        List<Contour> contoursBlue = blueDetector.getContours();
+
+        BeaconAnalysis best = BeaconAnalyzer.analyze_REALTIME(contoursRed, contoursBlue, img, orientation, this.debug)
+                .withStage(AnalysisMethod.REALTIME);
+
+        //Refine while the next stage is expected to finish before the deadline
+        //A skipped stage's estimate decays, so one slow frame cannot keep it skipped for good
+        long deadline = frameStart + deadlineNanos;
+        long start = System.nanoTime();
+        if (start + fastEstimateNanos > deadline) {
+            fastEstimateNanos = decay(fastEstimateNanos);
+            complexEstimateNanos = decay(complexEstimateNanos);
+            return best;
+        }
+        BeaconAnalysis analysis = BeaconAnalyzer.analyze_FAST(contoursRed, contoursBlue, ellipseLocator, img, gray, orientation,
+                BeaconAnalyzer.orientBounds(this.bounds, img, orientation), this.debug);
+        fastEstimateNanos = estimate(fastEstimateNanos, System.nanoTime() - start);
+        if (analysis.isBeaconFound())
+            best = analysis.withStage(AnalysisMethod.FAST);
+
+        start = System.nanoTime();
+        if (start + complexEstimateNanos > deadline) {
+            complexEstimateNanos = decay(complexEstimateNanos);
+            return best;
         }
+        analysis = BeaconAnalyzer.analyze_COMPLEX(contoursRed, contoursBlue, ellipseCache, img, gray, orientation, this.bounds, this.debug);
+        complexEstimateNanos = estimate(complexEstimateNanos, System.nanoTime() - start);
+        if (analysis.isBeaconFound())
+            best = analysis.withStage(AnalysisMethod.COMPLEX);
+        return best;
+    }
+
+    private static long estimate(long estimateNanos, long elapsed) {
+        //Exponential moving average of the cost
+        return estimateNanos == 0 ? elapsed : (long) (estimateNanos * 0.8 + elapsed * 0.2);
+    }
+
+    private static long decay(long estimateNanos) {
+        return (long) (estimateNanos * 0.8);
     }
 
     /**
@@ -124,16 +228,32 @@ public final class Beacon {
      * @return Current analysis method
      */
     public AnalysisMethod getAnalysisMethod() {
-        return method;
+        return requestedMethod;
     }
 
     /**
      * Set analysis method
+     * Like every setting of the beacon, it may be set from any thread and is applied at the start
+     * of the next analyzed frame.
      *
      * @param method AnalysisMethod selection
      */
     public void setAnalysisMethod(AnalysisMethod method) {
-        this.method = method;
+        requestedMethod = method;
+        settingsChanged = true;
+    }
+
+    /**
+     * Set the time allowed to analyze a frame with the ANYTIME method
+     * Refining stages that are not expected to finish in time are skipped.
+     *
+     * @param milliseconds Deadline in milliseconds, measured from the start of analyzeFrame() (default 25)
+     */
+    public void setDeadline(double milliseconds) {
+        if (milliseconds < 0)
+            throw new IllegalArgumentException("Deadline must not be negative");
+        requestedDeadlineNanos = (long) (milliseconds * 1e6);
+        settingsChanged = true;
     }
 
     /**
@@ -144,7 +264,8 @@ public final class Beacon {
      * @param bounds Rectangle containing the frame area to analyze
      */
     public void setAnalysisBounds(Rectangle bounds) {
-        this.bounds = bounds;
+        requestedBounds = bounds;
+        settingsChanged = true;
     }
 
     /**
@@ -153,7 +274,76 @@ public final class Beacon {
      * @param frameSize Frame size
      */
     public void resetAnalysisBounds(Size frameSize) {
-        this.bounds = new Rectangle(new Point(frameSize.width / 2, frameSize.height / 2), frameSize.width, frameSize.height);
+        setAnalysisBounds(new Rectangle(new Point(frameSize.width / 2, frameSize.height / 2), frameSize.width, frameSize.height));
+    }
+
+    /**
+     * Returns whether the beacon is tracked between frames
+     *
+     * @return True if tracking is enabled
+     */
+    public boolean isTrackingEnabled() {
+        return tracker != null;
+    }
+
+    /**
+     * Enable or disable tracking the beacon between frames
+     * While tracking, only a window around the predicted beacon location is searched, and the
+     * location and confidence are smoothed. The whole frame is searched again when the beacon is lost.
+     *
+     * @param enabled True to enable tracking, false to analyze every frame from scratch (default)
+     */
+    public void setTrackingEnabled(boolean enabled) {
+        if (enabled && tracker == null)
+            tracker = new BeaconTracker();
+        else if (!enabled)
+            tracker = null;
+    }
+
+    /**
+     * Split full-frame ellipse detection in the COMPLEX method into horizontal bands, each on its own thread
+     * May be called from any thread; the change is applied at the start of the next analyzed frame.
+     *
+     * @param bands Number of bands, or 1 to detect on the analysis thread only (default)
+     */
+    public void setEllipseBands(int bands) {
+        if (bands < 1)
+            throw new IllegalArgumentException("There must be at least one band");
+        requestedEllipseBands = bands;
+    }
+
+    private void applyEllipseBands() {
+        int bands = requestedEllipseBands;
+        if (bands == ellipseBands)
+            return;
+        releaseParallelLocator();
+        if (bands > 1) {
+            parallelLocator = new ParallelEllipseLocator(bands);
+            ellipseCache.setLocator(parallelLocator);
+        }
+        ellipseCache.reset();
+        ellipseBands = bands;
+    }
+
+    private void releaseParallelLocator() {
+        ellipseCache.setLocator(null);
+        if (parallelLocator != null) {
+            parallelLocator.release();
+            parallelLocator = null;
+        }
+        ellipseBands = 1;
+    }
+
+    /**
+     * Release all native memory and threads held by the beacon
+     * Must not be called while a frame is being analyzed. The beacon may still be used afterwards.
+     */
+    public void release() {
+        releaseParallelLocator();
+        ellipseCache.release();
+        ellipseLocator.release();
+        redDetector.release();
+        blueDetector.release();
     }
 
     /**
@@ -164,14 +354,8 @@ public final class Beacon {
      *                  as red)
      */
     public void setColorToleranceRed(double tolerance) {
-        //Reset the detector first
-        redDetector = new ColorBlobDetector(Constants.COLOR_RED_LOWER, Constants.COLOR_RED_UPPER);
-        double[] center = redDetector.getColorCenter().getScalar().val;
-        double[] radius = redDetector.getColorRadius().val;
-        radius = getColorWithTolerance(radius, tolerance);
-        Scalar lower = new Scalar(center[0] - radius[0], center[1] - radius[1], center[2] - radius[2]);
-        Scalar upper = new Scalar(center[0] + radius[0], center[1] + radius[1], center[2] + radius[2]);
-        redDetector = new ColorBlobDetector(new ColorHSV(lower), new ColorHSV(upper));
+        requestedToleranceRed = tolerance;
+        settingsChanged = true;
     }
 
     /**
@@ -182,14 +366,89 @@ public final class Beacon {
      *                  as blue)
      */
     public void setColorToleranceBlue(double tolerance) {
-        //Reset the detector first
-        blueDetector = new ColorBlobDetector(Constants.COLOR_BLUE_LOWER, Constants.COLOR_BLUE_UPPER);
-        double[] center = blueDetector.getColorCenter().getScalar().val;
-        double[] radius = blueDetector.getColorRadius().val;
+        requestedToleranceBlue = tolerance;
+        settingsChanged = true;
+    }
+
+    private static void setColorTolerance(ColorBlobDetector detector, ColorHSV lowerBound, ColorHSV upperBound, double tolerance) {
+        //Scale the radius around the center of the default range
+        double[] l = lowerBound.getScalar().val;
+        double[] u = upperBound.getScalar().val;
+        double[] center = new double[]{(l[0] + u[0]) / 2, (l[1] + u[1]) / 2, (l[2] + u[2]) / 2};
+        double[] radius = new double[]{Math.abs(center[0] - l[0]), Math.abs(center[1] - l[1]), Math.abs(center[2] - l[2])};
         radius = getColorWithTolerance(radius, tolerance);
         Scalar lower = new Scalar(center[0] - radius[0], center[1] - radius[1], center[2] - radius[2]);
         Scalar upper = new Scalar(center[0] + radius[0], center[1] + radius[1], center[2] + radius[2]);
-        blueDetector = new ColorBlobDetector(new ColorHSV(lower), new ColorHSV(upper));
+        detector.setColorRange(new ColorHSV(lower), new ColorHSV(upper));
+    }
+
+    /**
+     * Get the speed/accuracy preset used for color detection
+     *
+     * @return Color detection preset
+     */
+    public ColorBlobDetector.Preset getDetectionPreset() {
+        return requestedPreset;
+    }
+
+    /**
+     * Set the speed/accuracy preset used for color detection
+     * Use PRECISE for far away beacons and LOW_LATENCY when close to the beacon.
+     * May be called from any thread; the change is applied at the start of the next analyzed frame.
+     *
+     * @param preset Color detection preset (default BALANCED)
+     */
+    public void setDetectionPreset(ColorBlobDetector.Preset preset) {
+        if (preset == null)
+            throw new IllegalArgumentException("Preset must not be null");
+        requestedPreset = preset;
+        settingsChanged = true;
+    }
+
+    /**
+     * Set whether color detection uses precomputed color lookup tables instead of HSV conversion
+     * Lookup tables are applied in Java and can be slower than the native conversion; see
+     * ColorBlobDetector.setLookupTableEnabled().
+     *
+     * @param enabled True to use lookup tables, false to convert to HSV (default)
+     */
+    public void setLookupTableEnabled(boolean enabled) {
+        requestedLookupTable = enabled;
+        settingsChanged = true;
+    }
+
+    private void applySettings() {
+        if (!settingsChanged)
+            return;
+        //Clear the flag before reading, so a change made meanwhile is applied on the next frame
+        settingsChanged = false;
+        method = requestedMethod;
+        bounds = requestedBounds;
+        deadlineNanos = requestedDeadlineNanos;
+
+        //These replace detector buffers, so they must not run while a detector is processing
+        ColorBlobDetector.Preset preset = requestedPreset;
+        if (preset != this.preset) {
+            redDetector.setPreset(preset);
+            blueDetector.setPreset(preset);
+            this.preset = preset;
+        }
+        boolean lookupTable = requestedLookupTable;
+        if (lookupTable != this.lookupTable) {
+            redDetector.setLookupTableEnabled(lookupTable);
+            blueDetector.setLookupTableEnabled(lookupTable);
+            this.lookupTable = lookupTable;
+        }
+        double tolerance = requestedToleranceRed;
+        if (tolerance != toleranceRed) {
+            setColorTolerance(redDetector, Constants.COLOR_RED_LOWER, Constants.COLOR_RED_UPPER, tolerance);
+            toleranceRed = tolerance;
+        }
+        tolerance = requestedToleranceBlue;
+        if (tolerance != toleranceBlue) {
+            setColorTolerance(blueDetector, Constants.COLOR_BLUE_LOWER, Constants.COLOR_BLUE_UPPER, tolerance);
+            toleranceBlue = tolerance;
+        }
     }
 
     /**
@@ -231,7 +490,13 @@ public final class Beacon {
          * COMPLEX is highly complex and a work in progress, but is better at selecting
          * the correct beacon at long distances, but requires that the entire beacon be in view.
          */
-        COMPLEX;
+        COMPLEX,
+        /**
+         * Bounded-time method - runs REALTIME, then refines with FAST and COMPLEX while time allows
+         * ANYTIME returns the best analysis found before the deadline set by setDeadline().
+         * The completed stage is given by BeaconAnalysis.getCompletedStage().
+         */
+        ANYTIME;
 
         public String toString() {
             switch (this) {
@@ -243,6 +508,8 @@ public final class Beacon {
                     return "FAST";
                 case COMPLEX:
                     return "COMPLEX";
+                case ANYTIME:
+                    return "ANYTIME";
             }
         }
     }
@@ -285,6 +552,7 @@ public final class Beacon {
         private final Rectangle location;
         private final Ellipse leftButton;
         private final Ellipse rightButton;
+        private final AnalysisMethod stage;
 
         //TODO Color and CONFIDENCE should make up the results
 
@@ -300,25 +568,34 @@ public final class Beacon {
             this.location = new Rectangle();
             this.leftButton = null;
             this.rightButton = null;
+            this.stage = null;
         }
 
         BeaconAnalysis(BeaconColor left, BeaconColor right, Rectangle location, double confidence) {
-            this.left = left;
-            this.right = right;
-            this.confidence = confidence;
-            this.location = location;
-            this.leftButton = null;
-            this.rightButton = null;
+            this(left, right, location, confidence, null, null, null);
         }
 
         BeaconAnalysis(BeaconColor left, BeaconColor right, Rectangle location, double confidence,
                        Ellipse leftButton, Ellipse rightButton) {
+            this(left, right, location, confidence, leftButton, rightButton, null);
+        }
+
+        BeaconAnalysis(BeaconColor left, BeaconColor right, Rectangle location, double confidence,
+                       Ellipse leftButton, Ellipse rightButton, AnalysisMethod stage) {
             this.left = left;
             this.right = right;
             this.confidence = confidence;
             this.location = location;
             this.leftButton = leftButton;
             this.rightButton = rightButton;
+            this.stage = stage;
+        }
+
+        /**
+         * Copy this analysis, recording the stage that produced it
+         */
+        BeaconAnalysis withStage(AnalysisMethod stage) {
+            return new BeaconAnalysis(left, right, location, confidence, leftButton, rightButton, stage);
         }
 
         /**
@@ -339,6 +616,15 @@ public final class Beacon {
             return rightButton;
         }
 
+        /**
+         * Get the analysis stage that produced this result
+         * With the ANYTIME method, this is the most refined stage that found the beacon in time.
+         *
+         * @return REALTIME, FAST or COMPLEX, or null if the frame was not analyzed
+         */
+        public AnalysisMethod getCompletedStage() {
+            return stage;
+        }
 
         public boolean hasEllipses() {
             return (leftButton != null && rightButton != null);
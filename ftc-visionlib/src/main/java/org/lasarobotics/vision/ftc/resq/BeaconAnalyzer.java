@@ -10,7 +10,9 @@ package org.lasarobotics.vision.ftc.resq;
 import android.util.Log;
 
 import org.lasarobotics.vision.detection.ColorBlobDetector;
-import org.lasarobotics.vision.detection.PrimitiveDetection;
+import org.lasarobotics.vision.detection.EllipseLocator;
+import org.lasarobotics.vision.detection.EllipseTileCache;
+import org.lasarobotics.vision.detection.MultiColorBlobDetector;
 import org.lasarobotics.vision.detection.objects.Contour;
 import org.lasarobotics.vision.detection.objects.Detectable;
 import org.lasarobotics.vision.detection.objects.Ellipse;
@@ -145,8 +147,33 @@ class BeaconAnalyzer {
             return new Beacon.BeaconAnalysis(Beacon.BeaconColor.BLUE, Beacon.BeaconColor.RED, centerRect, confidence);
     }
 
-    static Beacon.BeaconAnalysis analyze_FAST(ColorBlobDetector detectorRed, ColorBlobDetector detectorBlue,
-                                              Mat img, Mat gray, ScreenOrientation orientation, Rectangle bounds, boolean debug) {
+    static Beacon.BeaconAnalysis analyze_FAST(MultiColorBlobDetector detector, ColorBlobDetector detectorRed, ColorBlobDetector detectorBlue,
+                                              EllipseLocator ellipseLocator, Mat img, Mat gray, ScreenOrientation orientation,
+                                              Rectangle bounds, Rectangle window, boolean debug) {
+        bounds = orientBounds(bounds, img, orientation);
+
+        //Get contours within the bounds and the search window, if any
+        Rectangle roi = bounds;
+        if (window != null) {
+            if (window.right() <= bounds.left() || window.left() >= bounds.right() ||
+                    window.bottom() <= bounds.top() || window.top() >= bounds.bottom())
+                return new Beacon.BeaconAnalysis();
+            roi = bounds.clip(window);
+        }
+        detector.process(img, roi, detectorRed, detectorBlue);
+
+        return analyze_FAST(detectorRed.getContours(), detectorBlue.getContours(), ellipseLocator, img, gray, orientation, bounds, debug);
+    }
+
+    /**
+     * Rotate analysis bounds to follow the screen orientation
+     *
+     * @param bounds      Analysis bounds
+     * @param img         Image
+     * @param orientation Screen orientation
+     * @return Bounds in image coordinates, clipped to the image
+     */
+    static Rectangle orientBounds(Rectangle bounds, Mat img, ScreenOrientation orientation) {
         //Figure out which way to read the image
         double orientationAngle = orientation.getAngle();
         boolean swapLeftRight = orientationAngle >= 180; //swap if LANDSCAPE_WEST or PORTRAIT_REVERSE
@@ -171,13 +198,21 @@ class BeaconAnalyzer {
             bounds = new Rectangle(
                     new Point(bounds.center().x, img.size().height - bounds.center().y),
                     bounds.width(), bounds.height());
-        bounds = bounds.clip(new Rectangle(img.size()));
+        return bounds.clip(new Rectangle(img.size()));
+    }
 
-        //Get contours within the bounds
-        detectorRed.process(img);
-        detectorBlue.process(img);
-        List<Contour> contoursRed = detectorRed.getContours();
-        List<Contour> contoursBlue = detectorBlue.getContours();
+    /**
+     * FAST analysis of contours that were already detected
+     *
+     * @param bounds Analysis bounds, already rotated with orientBounds()
+     */
+    static Beacon.BeaconAnalysis analyze_FAST(List<Contour> contoursRed, List<Contour> contoursBlue, EllipseLocator ellipseLocator,
+                                              Mat img, Mat gray, ScreenOrientation orientation, Rectangle bounds, boolean debug) {
+        //Figure out which way to read the image
+        double orientationAngle = orientation.getAngle();
+        boolean swapLeftRight = orientationAngle >= 180; //swap if LANDSCAPE_WEST or PORTRAIT_REVERSE
+        boolean readOppositeAxis = orientation == ScreenOrientation.PORTRAIT ||
+                orientation == ScreenOrientation.PORTRAIT_REVERSE; //read other axis if any kind of portrait
 
         //DEBUG Draw contours before filtering
         if (debug) Drawing.drawContours(img, contoursRed, new ColorRGBA("#FF0000"), 2);
@@ -336,12 +371,12 @@ class BeaconAnalyzer {
                 (int) rightRect.left(), (int) rightRect.right());
 
         //Locate ellipses in the image to process contours against
-        List<Ellipse> ellipsesLeft =
-                PrimitiveDetection.locateEllipses(leftContourImg).getEllipses();
+        List<Ellipse> ellipsesLeft = ellipseLocator.locateEllipses(leftContourImg);
         Detectable.offset(ellipsesLeft, new Point(leftRect.left(), leftRect.top()));
-        List<Ellipse> ellipsesRight =
-                PrimitiveDetection.locateEllipses(rightContourImg).getEllipses();
+        List<Ellipse> ellipsesRight = ellipseLocator.locateEllipses(rightContourImg);
         Detectable.offset(ellipsesRight, new Point(rightRect.left(), rightRect.top()));
+        leftContourImg.release();
+        rightContourImg.release();
 
         //Score ellipses
         BeaconScoringCOMPLEX scorer = new BeaconScoringCOMPLEX(img.size());
@@ -542,7 +577,7 @@ class BeaconAnalyzer {
         return largestIndex;
     }
 
-    static Beacon.BeaconAnalysis analyze_COMPLEX(List<Contour> contoursRed, List<Contour> contoursBlue,
+    static Beacon.BeaconAnalysis analyze_COMPLEX(List<Contour> contoursRed, List<Contour> contoursBlue, EllipseTileCache ellipseCache,
                                                  Mat img, Mat gray, ScreenOrientation orientation, Rectangle bounds, boolean debug) {
         //The idea behind the SmartScoring algorithm is that the largest score in each contour/ellipse set will become the best
         //DONE First, ellipses and contours are are detected and pre-filtered to remove eccentricities
@@ -579,11 +614,10 @@ class BeaconAnalyzer {
 
         //Locate ellipses in the image to process contours against
         //Each contour must have an ellipse of correct specification
-        PrimitiveDetection primitiveDetection = new PrimitiveDetection();
-        PrimitiveDetection.EllipseLocationResult ellipseLocationResult = PrimitiveDetection.locateEllipses(gray);
+        //Only the parts of the image that changed since the last frame are searched again
+        List<Ellipse> ellipses = ellipseCache.locateEllipses(gray);
 
         //Filter out bad ellipses - TODO filtering currently ignored
-        List<Ellipse> ellipses = ellipseLocationResult.getEllipses();
 
         //DEBUG Ellipse data before filtering
         //Drawing.drawEllipses(img, ellipses, new ColorRGBA("#ff0745"), 1);
@@ -121,18 +121,27 @@ class BeaconScoringCOMPLEX {
         return (List<ScoredEllipse>) Scorable.sort(scores);
     }
 
-    private List<AssociatedContour> associate(List<ScoredContour> contours, List<ScoredEllipse> ellipses) {
+    List<AssociatedContour> associate(List<ScoredContour> contours, List<ScoredEllipse> ellipses) {
         //Ellipses with nearby/contained contours associate themselves with the contour
         //Ellipses without nearby/contained contours are removed
 
         List<AssociatedContour> associations = new ArrayList<>();
+        double maxDistance = Constants.ASSOCIATION_MAX_DISTANCE * imgSize.width;
+        EllipseGrid grid = new EllipseGrid(ellipses, imgSize, maxDistance);
 
         for (ScoredContour contour : contours) {
             AssociatedContour associatedContour = new AssociatedContour(contour, new ArrayList<ScoredEllipse>());
-            for (ScoredEllipse ellipse : ellipses) {
-                if (ellipse.ellipse.isInside(contour.contour) ||
-                        (MathUtil.distance(ellipse.ellipse.center(), contour.contour.centroid()) <=
-                                Constants.ASSOCIATION_MAX_DISTANCE * imgSize.width))
+            //Only ellipses centered inside the contour's bounds or near its centroid can associate
+            Contour c = contour.contour;
+            Point centroid = c.centroid();
+            int[] candidates = grid.query(Math.min(c.left(), centroid.x - maxDistance),
+                    Math.min(c.top(), centroid.y - maxDistance),
+                    Math.max(c.right(), centroid.x + maxDistance),
+                    Math.max(c.bottom(), centroid.y + maxDistance));
+            for (int i = 0; i < grid.getQueryCount(); i++) {
+                ScoredEllipse ellipse = ellipses.get(candidates[i]);
+                if (ellipse.ellipse.isInside(c) ||
+                        (MathUtil.distance(ellipse.ellipse.center(), c.centroid()) <= maxDistance))
                     associatedContour.ellipses.add(ellipse);
             }
             associatedContour.updateScore();
@@ -243,6 +252,92 @@ class BeaconScoringCOMPLEX {
         }
     }
 
+    /**
+     * Uniform grid over ellipse centers, used to find the ellipses near a contour
+     * Each cell is as wide as the association distance, so a query only visits a few cells.
+     */
+    static class EllipseGrid {
+        private final int columns;
+        private final int rows;
+        private final double cellSize;
+        //Ellipse indices sorted by cell, where cell i holds cellIndices[cellStart[i]..cellStart[i + 1]]
+        private final int[] cellStart;
+        private final int[] cellIndices;
+        private int[] result;
+        private int resultCount = 0;
+
+        EllipseGrid(List<ScoredEllipse> ellipses, Size imgSize, double cellSize) {
+            this.cellSize = Math.max(cellSize, 1);
+            columns = Math.max((int) Math.ceil(imgSize.width / this.cellSize), 1);
+            rows = Math.max((int) Math.ceil(imgSize.height / this.cellSize), 1);
+            cellStart = new int[columns * rows + 1];
+            cellIndices = new int[ellipses.size()];
+            result = new int[Math.min(ellipses.size(), 16)];
+
+            //Counting sort of the ellipses by cell
+            int[] cells = new int[ellipses.size()];
+            for (int i = 0; i < cells.length; i++) {
+                Point center = ellipses.get(i).ellipse.center();
+                cells[i] = cell(column(center.x), row(center.y));
+                cellStart[cells[i] + 1]++;
+            }
+            for (int i = 0; i < columns * rows; i++)
+                cellStart[i + 1] += cellStart[i];
+            int[] next = Arrays.copyOf(cellStart, columns * rows);
+            for (int i = 0; i < cells.length; i++)
+                cellIndices[next[cells[i]]++] = i;
+        }
+
+        private int column(double x) {
+            return Math.min(Math.max((int) Math.floor(x / cellSize), 0), columns - 1);
+        }
+
+        private int row(double y) {
+            return Math.min(Math.max((int) Math.floor(y / cellSize), 0), rows - 1);
+        }
+
+        private int cell(int column, int row) {
+            return row * columns + column;
+        }
+
+        /**
+         * Find the ellipses whose centers may lie within an area
+         * Ellipses centered outside the image are kept in the edge cells, so they are always candidates there.
+         *
+         * @return Indices of candidate ellipses in ascending order, valid until the next query.
+         * Only the first getQueryCount() entries are used.
+         */
+        int[] query(double left, double top, double right, double bottom) {
+            resultCount = 0;
+            int minColumn = column(left);
+            int maxColumn = column(right);
+            int minRow = row(top);
+            int maxRow = row(bottom);
+            for (int r = minRow; r <= maxRow; r++) {
+                for (int c = minColumn; c <= maxColumn; c++) {
+                    int cell = cell(c, r);
+                    for (int i = cellStart[cell]; i < cellStart[cell + 1]; i++) {
+                        if (resultCount == result.length)
+                            result = Arrays.copyOf(result, Math.max(result.length * 2, 16));
+                        result[resultCount++] = cellIndices[i];
+                    }
+                }
+            }
+            //Keep the original ellipse order, since the best ellipse comes first
+            Arrays.sort(result, 0, resultCount);
+            return result;
+        }
+
+        /**
+         * Get the number of candidates found by the last query
+         *
+         * @return Number of candidate ellipses
+         */
+        int getQueryCount() {
+            return resultCount;
+        }
+    }
+
     static class MultiAssociatedContours {
         final List<AssociatedContour> redContours;
         final List<AssociatedContour> blueContours;
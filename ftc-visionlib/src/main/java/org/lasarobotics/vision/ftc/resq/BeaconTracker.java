@@ -0,0 +1,158 @@
+/*
+ * Copyright (c) 2016 Arthur Pachachura, LASA Robotics, and contributors
+ * MIT licensed
+ */
+package org.lasarobotics.vision.ftc.resq;
+
+import org.lasarobotics.vision.detection.objects.Rectangle;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+import org.opencv.video.KalmanFilter;
+
+/**
+ * Tracks a beacon between frames with a constant-velocity Kalman filter
+ * <p/>
+ * While locked on, the tracker predicts where the beacon will be in the next frame so that
+ * only a window around the prediction needs to be searched. Found beacons are smoothed by the filter.
+ */
+public final class BeaconTracker {
+    //State is (x, y, width, height, vx, vy), measurement is (x, y, width, height)
+    private static final int STATES = 6;
+    private static final int MEASUREMENTS = 4;
+    //Smallest window searched, in pixels
+    private static final double MIN_WINDOW_SIZE = 48;
+
+    private final KalmanFilter filter = new KalmanFilter(STATES, MEASUREMENTS, 0, CvType.CV_32F);
+    private final Mat measurement = new Mat(MEASUREMENTS, 1, CvType.CV_32F);
+    private final Mat statePost = new Mat(STATES, 1, CvType.CV_32F);
+    private final Mat errorCov = new Mat(STATES, STATES, CvType.CV_32F);
+    private final float[] state = new float[STATES];
+
+    private double padding = 0.5;
+    private boolean locked = false;
+    private double confidence = 0;
+
+    /**
+     * Instantiate a tracker that is not locked on
+     */
+    public BeaconTracker() {
+        //Constant velocity model, one frame per step
+        Mat transition = Mat.eye(STATES, STATES, CvType.CV_32F);
+        transition.put(0, 4, 1);
+        transition.put(1, 5, 1);
+        filter.set_transitionMatrix(transition);
+
+        filter.set_measurementMatrix(Mat.eye(MEASUREMENTS, STATES, CvType.CV_32F));
+
+        Mat processNoise = new Mat(STATES, STATES, CvType.CV_32F);
+        Core.setIdentity(processNoise, new Scalar(1));
+        filter.set_processNoiseCov(processNoise);
+
+        Mat measurementNoise = new Mat(MEASUREMENTS, MEASUREMENTS, CvType.CV_32F);
+        Core.setIdentity(measurementNoise, new Scalar(16));
+        filter.set_measurementNoiseCov(measurementNoise);
+    }
+
+    /**
+     * Set how far around the predicted beacon to search
+     *
+     * @param padding Padding on each side, as a fraction of the larger beacon dimension (default 0.5)
+     */
+    public void setPadding(double padding) {
+        if (padding < 0)
+            throw new IllegalArgumentException("Padding must not be negative");
+        this.padding = padding;
+    }
+
+    /**
+     * Returns whether the tracker is locked on to a beacon
+     *
+     * @return True if locked on
+     */
+    public boolean isLocked() {
+        return locked;
+    }
+
+    /**
+     * Lose the lock, so that the next frame is searched in full
+     */
+    public void reset() {
+        locked = false;
+        confidence = 0;
+    }
+
+    /**
+     * Predict the beacon location in the next frame and get the window to search
+     *
+     * @param imageSize Size of the image
+     * @return Window to search, or null if the whole image should be searched
+     */
+    public Rectangle predict(Size imageSize) {
+        if (!locked)
+            return null;
+
+        filter.predict().get(0, 0, state);
+        double size = Math.max(state[2], state[3]);
+        double padX = padding * size + Math.abs(state[4]);
+        double padY = padding * size + Math.abs(state[5]);
+        double width = Math.max(state[2] + 2 * padX, MIN_WINDOW_SIZE);
+        double height = Math.max(state[3] + 2 * padY, MIN_WINDOW_SIZE);
+
+        //Clip the window to the image
+        double left = Math.max(state[0] - width / 2, 0);
+        double top = Math.max(state[1] - height / 2, 0);
+        double right = Math.min(state[0] + width / 2, imageSize.width);
+        double bottom = Math.min(state[1] + height / 2, imageSize.height);
+        if (right <= left || bottom <= top) {
+            //Predicted off screen
+            reset();
+            return null;
+        }
+        return new Rectangle(top, left, bottom, right);
+    }
+
+    /**
+     * Update the tracker with the analysis of the current frame
+     *
+     * @param analysis Beacon analysis of the current frame
+     * @return The analysis with a smoothed location and confidence, or the analysis itself if
+     * no beacon was found
+     */
+    public Beacon.BeaconAnalysis update(Beacon.BeaconAnalysis analysis) {
+        if (!analysis.isBeaconFound()) {
+            reset();
+            return analysis;
+        }
+
+        Point center = analysis.getCenter();
+        float[] measured = new float[]{(float) center.x, (float) center.y,
+                (float) analysis.getWidth(), (float) analysis.getHeight()};
+
+        if (!locked) {
+            //Start tracking at the measured location, not moving
+            statePost.put(0, 0, measured[0], measured[1], measured[2], measured[3], 0, 0);
+            filter.set_statePost(statePost);
+
+            Core.setIdentity(errorCov, new Scalar(16));
+            filter.set_errorCovPost(errorCov);
+
+            locked = true;
+            confidence = analysis.getConfidence();
+            return analysis;
+        }
+
+        measurement.put(0, 0, measured);
+        filter.correct(measurement).get(0, 0, state);
+
+        //Smooth the confidence as well
+        confidence = 0.5 * confidence + 0.5 * analysis.getConfidence();
+
+        Rectangle location = new Rectangle(new Point(state[0], state[1]), state[2], state[3]);
+        return new Beacon.BeaconAnalysis(analysis.getStateLeft(), analysis.getStateRight(),
+                location, confidence, analysis.getLeftButton(), analysis.getRightButton(), analysis.getCompletedStage());
+    }
+}
@@ -6,11 +6,26 @@ package org.lasarobotics.vision.opmode;
 
 import org.lasarobotics.vision.opmode.extensions.BeaconExtension;
 import org.lasarobotics.vision.opmode.extensions.CameraControlExtension;
+import org.lasarobotics.vision.opmode.extensions.ExtensionSchedule;
+import org.lasarobotics.vision.opmode.extensions.FrameAccess;
 import org.lasarobotics.vision.opmode.extensions.ImageRotationExtension;
 import org.lasarobotics.vision.opmode.extensions.VisionExtension;
+import org.lasarobotics.vision.util.LatencyHistogram;
 import org.opencv.core.Mat;
 import org.opencv.imgproc.Imgproc;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+
 /**
  * Easy-to-use, extensible vision op mode
  * For more custom implementations, use ManualVisionOpMode or modify core extensions in opmode.extensions.*
@@ -18,9 +33,9 @@ import org.opencv.imgproc.Imgproc;
 public abstract class VisionOpMode extends VisionOpModeCore {
 
     /***
-     * CUSTOM EXTENSION INITIALIZATION
+     * BUILT-IN EXTENSIONS
      * <p/>
-     * Add your extension here and in the Extensions class below!
+     * Enable these with enableExtension(), or register your own with registerExtension()
      */
     public static final BeaconExtension beacon = new BeaconExtension();
     public static final ImageRotationExtension rotation = new ImageRotationExtension();
@@ -28,12 +43,41 @@ public abstract class VisionOpMode extends VisionOpModeCore {
 
     private boolean enableOpenCV = true;
     /**
-     * END OF CUSTOM EXTENSION INITIALIZATION
+     * END OF BUILT-IN EXTENSIONS
      */
 
-    private int extensions = 0;
+    private static final Comparator<Registration> PRIORITY_ORDER = new Comparator<Registration>() {
+        @Override
+        public int compare(Registration a, Registration b) {
+            if (a.priority != b.priority)
+                return a.priority > b.priority ? -1 : 1;
+            return a.order < b.order ? -1 : (a.order == b.order ? 0 : 1);
+        }
+    };
+
+    //All registered extensions, and a sorted copy of them that frame() walks
+    private final List<Registration> registry = new ArrayList<>();
+    private volatile Registration[] enabled = new Registration[0];
+    private int registrationCount = 0;
     private boolean extensionsInitialized = false;
 
+    //Latency of each stage of frame(), in nanoseconds
+    private final LatencyHistogram colorConversionLatency = new LatencyHistogram();
+    private final LatencyHistogram frameLatency = new LatencyHistogram();
+    private boolean latencyTelemetry = false;
+
+    //Frame scheduling
+    //An extension deferred this many frames in a row runs regardless, to refresh its cost estimate
+    private static final int MAX_CONSECUTIVE_DEFERRALS = 10;
+    private long frameCount = 0;
+    private long frameBudgetNanos = 0;
+
+    //Read-only extensions run concurrently on this pool
+    private ExecutorService readerPool = null;
+    private boolean parallelExtensions = true;
+    private final List<Future<?>> readerTasks = new ArrayList<>();
+    private final List<Mat[]> snapshots = new ArrayList<>();
+
     public VisionOpMode() {
         super();
     }
@@ -43,41 +87,229 @@ public abstract class VisionOpMode extends VisionOpModeCore {
         this.enableOpenCV = enableOpenCV;
     }
 
-    private boolean isEnabled(Extensions extension) {
-        return (extensions & extension.id) > 0;
+    /**
+     * Enable a particular built-in Vision Extension.
+     *
+     * @param extension Extension ID
+     */
+    protected void enableExtension(Extensions extension) {
+        registerExtension(extension.instance, extension.priority);
     }
 
     /**
-     * Enable a particular Vision Extension.
+     * Disable a particular built-in Vision Extension
      *
      * @param extension Extension ID
      */
-    protected void enableExtension(Extensions extension) {
-        //Don't initialize extension if we haven't ever called init() yet
-        if (extensionsInitialized)
-            extension.instance.init(this);
+    protected void disableExtension(Extensions extension) {
+        unregisterExtension(extension.instance);
+    }
 
-        extensions = extensions | extension.id;
+    /**
+     * Register and enable a Vision Extension
+     * <p/>
+     * Extensions with a higher priority run first in each frame; extensions with the same
+     * priority run in the order they were registered. Registering an extension again only
+     * changes its priority.
+     *
+     * @param extension Extension instance
+     * @param priority  Priority of the extension
+     */
+    public synchronized void registerExtension(VisionExtension extension, int priority) {
+        Registration registration = find(extension);
+        if (registration != null) {
+            registration.priority = priority;
+        } else {
+            //Don't initialize extension if we haven't ever called init() yet
+            if (extensionsInitialized)
+                extension.init(this);
+            registry.add(new Registration(extension, priority, registrationCount++));
+        }
+        rebuild();
+    }
+
+    /**
+     * Override the schedule declared by a registered Vision Extension
+     *
+     * @param extension Extension instance
+     * @param schedule  New schedule, or null to use the schedule declared by the extension
+     */
+    public synchronized void setExtensionSchedule(VisionExtension extension, ExtensionSchedule schedule) {
+        Registration registration = find(extension);
+        if (registration == null)
+            throw new IllegalArgumentException("Extension is not registered");
+        registration.schedule = schedule;
+    }
+
+    /**
+     * Set the time budget for processing a single frame
+     * <p/>
+     * When running the next deferrable extension would exceed the budget (based on its recent
+     * latency), that extension is deferred to the next frame instead. Other extensions always run.
+     * An extension is never deferred for more than 10 frames in a row, so that one slow frame
+     * cannot disable it for good.
+     *
+     * @param milliseconds Frame budget in milliseconds, or zero to disable
+     */
+    public void setFrameBudget(double milliseconds) {
+        frameBudgetNanos = (long) (milliseconds * 1e6);
     }
 
     /**
-     * Disable a particular Vision Extension
+     * Get the number of frames processed so far
+     *
+     * @return Frame count
+     */
+    public long getFrameCount() {
+        return frameCount;
+    }
+
+    /**
+     * Get the number of frames on which an extension was due but deferred due to the frame budget
+     *
+     * @param extension Extension instance
+     * @return Deferred frame count, or zero if the extension is not registered
+     */
+    public synchronized long getDeferredFrameCount(VisionExtension extension) {
+        Registration registration = find(extension);
+        return registration != null ? registration.deferredCount : 0;
+    }
+
+    /**
+     * Get the number of the last frame on which an extension was deferred due to the frame budget
+     *
+     * @param extension Extension instance
+     * @return Frame number (see getFrameCount()), or -1 if never deferred
+     */
+    public synchronized long getLastDeferredFrame(VisionExtension extension) {
+        Registration registration = find(extension);
+        return registration != null ? registration.lastDeferredFrame : -1;
+    }
+
+    /**
+     * Get the number of frames an extension did not run on because of its schedule
+     *
+     * @param extension Extension instance
+     * @return Skipped frame count, or zero if the extension is not registered
+     */
+    public synchronized long getScheduledSkipCount(VisionExtension extension) {
+        Registration registration = find(extension);
+        return registration != null ? registration.scheduledSkipCount : 0;
+    }
+
+    /**
+     * Disable and stop a Vision Extension
+     *
+     * @param extension Extension instance
+     */
+    public synchronized void unregisterExtension(VisionExtension extension) {
+        Registration registration = find(extension);
+        if (registration == null)
+            return;
+        registry.remove(registration);
+        rebuild();
+
+        extension.stop(this);
+    }
+
+    /**
+     * Returns whether a Vision Extension is registered
+     *
+     * @param extension Extension instance
+     * @return True if registered, false otherwise
+     */
+    public synchronized boolean isExtensionRegistered(VisionExtension extension) {
+        return find(extension) != null;
+    }
+
+    private Registration find(VisionExtension extension) {
+        for (Registration registration : registry)
+            if (registration.extension == extension)
+                return registration;
+        return null;
+    }
+
+    private void rebuild() {
+        Registration[] sorted = registry.toArray(new Registration[registry.size()]);
+        Arrays.sort(sorted, PRIORITY_ORDER);
+        enabled = sorted;
+    }
+
+    /**
+     * Get the per-frame latency of a built-in Vision Extension, excluding color conversion
      *
      * @param extension Extension ID
+     * @return Latency histogram in nanoseconds, which is empty if the extension is not enabled
+     */
+    public LatencyHistogram getExtensionLatency(Extensions extension) {
+        return getExtensionLatency(extension.instance);
+    }
+
+    /**
+     * Get the per-frame latency of a Vision Extension, excluding color conversion
+     *
+     * @param extension Extension instance
+     * @return Latency histogram in nanoseconds, which is empty if the extension is not registered
      */
-    private void disableExtension(Extensions extension) {
-        extensions -= extensions & extension.id;
+    public synchronized LatencyHistogram getExtensionLatency(VisionExtension extension) {
+        Registration registration = find(extension);
+        //Never null, so callers can chain getPercentile() whether or not the extension is enabled
+        return registration != null ? registration.latency : new LatencyHistogram();
+    }
 
-        extension.instance.stop(this);
+    /**
+     * Get the latency of the RGBA to gray conversion run between extensions
+     *
+     * @return Latency histogram in nanoseconds
+     */
+    public LatencyHistogram getColorConversionLatency() {
+        return colorConversionLatency;
+    }
+
+    /**
+     * Get the latency of the entire frame() call, including all extensions
+     *
+     * @return Latency histogram in nanoseconds
+     */
+    public LatencyHistogram getFrameLatency() {
+        return frameLatency;
+    }
+
+    /**
+     * Show p50/p95/p99 latencies for each stage of frame processing in telemetry
+     *
+     * @param enabled True to show latencies on every loop()
+     */
+    public void setLatencyTelemetry(boolean enabled) {
+        latencyTelemetry = enabled;
+    }
+
+    /**
+     * Clear all recorded latencies
+     */
+    public void resetLatency() {
+        for (Registration registration : enabled)
+            registration.latency.reset();
+        colorConversionLatency.reset();
+        frameLatency.reset();
+    }
+
+    /**
+     * Set whether extensions that only read the frame may run concurrently on worker threads
+     * Enabled by default.
+     *
+     * @param enabled True to run read-only extensions concurrently, false to run every extension in order
+     */
+    public void setParallelExtensions(boolean enabled) {
+        parallelExtensions = enabled;
     }
 
     @Override
     public void init() {
         if (enableOpenCV) super.init();
 
-        for (Extensions extension : Extensions.values())
-            if (isEnabled(extension))
-                extension.instance.init(this);
+        for (Registration registration : enabled)
+            registration.extension.init(this);
 
         extensionsInitialized = true;
     }
@@ -86,47 +318,228 @@ public abstract class VisionOpMode extends VisionOpModeCore {
     public void loop() {
         if (enableOpenCV) super.loop();
 
-        for (Extensions extension : Extensions.values())
-            if (isEnabled(extension))
-                extension.instance.loop(this);
+        Registration[] extensions = enabled;
+        for (Registration registration : extensions)
+            registration.extension.loop(this);
+
+        if (latencyTelemetry) {
+            telemetry.addData("Latency Frame", frameLatency.toString());
+            telemetry.addData("Latency Color Conversion", colorConversionLatency.toString());
+            for (Registration registration : extensions)
+                telemetry.addData("Latency " + registration.extension.getClass().getSimpleName(),
+                        registration.latency.toString() + ", deferred " + registration.deferredCount);
+        }
     }
 
     @Override
     public Mat frame(Mat rgba, Mat gray) {
+        long frameStart = System.nanoTime();
+        boolean grayValid = true;
+        ExecutorService pool = parallelExtensions ? getReaderPool() : null;
+        Registration[] extensions = enabled;
+        Mat[] snapshot = null;
+        int snapshotCount = 0;
+        long frameNumber = frameCount++;
+
+        for (int i = 0; i < extensions.length; i++) {
+            Registration registration = extensions[i];
+            FrameAccess access = registration.extension.getFrameAccess();
+
+            //Skip extensions that are not due, or defer them if they would blow the frame budget
+            ExtensionSchedule schedule = registration.getSchedule();
+            long now = System.nanoTime();
+            if (!schedule.isDue(frameNumber, now, registration.lastFrame, registration.lastRunNanos)) {
+                registration.scheduledSkipCount++;
+                continue;
+            }
+            if (frameBudgetNanos > 0 && schedule.isDeferrable() &&
+                    registration.consecutiveDeferrals < MAX_CONSECUTIVE_DEFERRALS &&
+                    (now - frameStart) + registration.estimateNanos > frameBudgetNanos) {
+                registration.consecutiveDeferrals++;
+                registration.deferredCount++;
+                registration.lastDeferredFrame = frameNumber;
+                continue;
+            }
+            registration.consecutiveDeferrals = 0;
+            registration.lastFrame = frameNumber;
+            registration.lastRunNanos = now;
 
-        for (Extensions extension : Extensions.values())
-            if (isEnabled(extension)) {
-                //Pipe the rgba of the previous point into the gray of the next
+            //Pipe the rgba of the previous point into the gray of the next
+            //The camera's gray image is valid until an extension writes to the frame
+            if (!grayValid) {
+                long start = System.nanoTime();
                 Imgproc.cvtColor(rgba, gray, Imgproc.COLOR_RGBA2GRAY);
-                extension.instance.frame(this, rgba, gray);
+                colorConversionLatency.record(System.nanoTime() - start);
+                grayValid = true;
             }
 
+            if (pool == null || access == FrameAccess.WRITE) {
+                //Writers run alone, in order
+                runExtension(registration, rgba, gray);
+                grayValid = access != FrameAccess.WRITE;
+                snapshot = null;
+            } else if (hasAccessAfter(extensions, i, FrameAccess.WRITE)) {
+                //A writer follows, so readers before it work on a copy of the frame as it is now
+                if (snapshot == null)
+                    snapshot = takeSnapshot(snapshotCount++, rgba, gray);
+                submitExtension(pool, registration, snapshot[0], snapshot[1]);
+            } else if (i < extensions.length - 1) {
+                //Nothing writes to the frame anymore, so readers can share it
+                submitExtension(pool, registration, rgba, gray);
+            } else {
+                //Run the last reader on this thread rather than leaving it idle
+                runExtension(registration, rgba, gray);
+            }
+        }
+
+        awaitExtensions();
+        frameLatency.record(System.nanoTime() - frameStart);
         return rgba;
     }
 
+    //Extensions that end up skipped this frame still count, which at worst costs an unneeded snapshot
+    private static boolean hasAccessAfter(Registration[] extensions, int index, FrameAccess access) {
+        for (int i = index + 1; i < extensions.length; i++)
+            if (extensions[i].extension.getFrameAccess() == access)
+                return true;
+        return false;
+    }
+
+    private void runExtension(Registration registration, Mat rgba, Mat gray) {
+        long start = System.nanoTime();
+        registration.extension.frame(this, rgba, gray);
+        long elapsed = System.nanoTime() - start;
+        registration.latency.record(elapsed);
+        //Exponential moving average of the cost, for the frame budget
+        registration.estimateNanos = registration.estimateNanos == 0 ? elapsed :
+                (long) (registration.estimateNanos * 0.8 + elapsed * 0.2);
+    }
+
+    private void submitExtension(ExecutorService pool, final Registration registration, final Mat rgba, final Mat gray) {
+        try {
+            readerTasks.add(pool.submit(new Runnable() {
+                @Override
+                public void run() {
+                    runExtension(registration, rgba, gray);
+                }
+            }));
+        } catch (RejectedExecutionException e) {
+            //The pool was shut down by stop() during this frame
+            runExtension(registration, rgba, gray);
+        }
+    }
+
+    private void awaitExtensions() {
+        for (Future<?> task : readerTasks) {
+            try {
+                task.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                e.printStackTrace();
+            }
+        }
+        readerTasks.clear();
+    }
+
+    private Mat[] takeSnapshot(int index, Mat rgba, Mat gray) {
+        while (snapshots.size() <= index)
+            snapshots.add(new Mat[]{new Mat(), new Mat()});
+        Mat[] snapshot = snapshots.get(index);
+        rgba.copyTo(snapshot[0]);
+        gray.copyTo(snapshot[1]);
+        return snapshot;
+    }
+
+    private ExecutorService getReaderPool() {
+        if (readerPool == null) {
+            int threads = Runtime.getRuntime().availableProcessors() - 1;
+            if (threads < 1)
+                return null;
+            readerPool = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "FTCVision Extension");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return readerPool;
+    }
+
     @Override
     public void stop() {
         super.stop();
 
-        for (Extensions extension : Extensions.values())
-            if (isEnabled(extension))
-                disableExtension(extension); //disable and stop
+        //Disable and stop every extension
+        List<Registration> registrations;
+        synchronized (this) {
+            registrations = new ArrayList<>(Arrays.asList(enabled));
+        }
+        Collections.reverse(registrations);
+        for (Registration registration : registrations)
+            unregisterExtension(registration.extension);
+
+        if (readerPool != null) {
+            readerPool.shutdown();
+            readerPool = null;
+        }
+    }
+
+    /**
+     * A registered extension and its per-frame state
+     */
+    private static final class Registration {
+        final VisionExtension extension;
+        final int order;
+        final LatencyHistogram latency = new LatencyHistogram();
+        int priority;
+        volatile ExtensionSchedule schedule = null;
+        volatile long estimateNanos = 0;
+        long lastFrame = -1;
+        long lastRunNanos = 0;
+        int consecutiveDeferrals = 0;
+        //Only written by frame(), but read from other threads
+        volatile long scheduledSkipCount = 0;
+        volatile long deferredCount = 0;
+        volatile long lastDeferredFrame = -1;
+
+        Registration(VisionExtension extension, int priority, int order) {
+            this.extension = extension;
+            this.priority = priority;
+            this.order = order;
+        }
+
+        ExtensionSchedule getSchedule() {
+            ExtensionSchedule s = schedule;
+            return s != null ? s : extension.getSchedule();
+        }
     }
 
     /**
-     * List of Vision Extensions
+     * List of built-in Vision Extensions and their default priorities
      */
     public enum Extensions {
-        BEACON(2, beacon),
-        CAMERA_CONTROL(1, cameraControl), //high priority
-        ROTATION(4, rotation); //low priority
+        BEACON(300, beacon), //high priority
+        CAMERA_CONTROL(200, cameraControl),
+        ROTATION(100, rotation); //low priority
 
-        final int id;
+        final int priority;
         final VisionExtension instance;
 
-        Extensions(int id, VisionExtension instance) {
-            this.id = id;
+        Extensions(int priority, VisionExtension instance) {
+            this.priority = priority;
             this.instance = instance;
         }
+
+        /**
+         * Get the default priority of this extension
+         *
+         * @return Priority, where higher runs first
+         */
+        public int getPriority() {
+            return priority;
+        }
     }
 }
@@ -15,6 +15,9 @@ import com.qualcomm.robotcore.eventloop.opmode.OpMode;
 
 import org.lasarobotics.vision.android.Cameras;
 import org.lasarobotics.vision.android.Sensors;
+import org.lasarobotics.vision.frame.FrameProcessor;
+import org.lasarobotics.vision.frame.FrameSource;
+import org.lasarobotics.vision.frame.FrameSourceRunner;
 import org.lasarobotics.vision.util.FPS;
 import org.opencv.android.BaseLoaderCallback;
 import org.opencv.android.CameraBridgeViewBase;
@@ -35,6 +38,8 @@ abstract class VisionOpModeCore extends OpMode implements CameraBridgeViewBase.C
     public int width, height;
     public FPS fps;
     public Sensors sensors;
+    private FrameSource frameSource = null;
+    private FrameSourceRunner frameSourceRunner = null;
 
     public VisionOpModeCore() {
         initialized = false;
@@ -104,6 +109,31 @@ abstract class VisionOpModeCore extends OpMode implements CameraBridgeViewBase.C
         return new Size(width, height);
     }
 
+    /**
+     * Use a frame source, such as a recording or a generator, instead of the camera
+     * Must be called before init(). Frames are processed on the frame source thread and
+     * the camera view is never created.
+     * <p/>
+     * Off the device, where there is no hardware map, init() skips the Android OpenCV loader and
+     * sensors, so the op mode can run on a plain JVM once the OpenCV native library is loaded.
+     *
+     * @param source Frame source, or null to use the camera
+     */
+    public void setFrameSource(FrameSource source) {
+        if (initialized)
+            throw new IllegalStateException("The frame source must be set before init()");
+        frameSource = source;
+    }
+
+    /**
+     * Get the frame source runner, if a frame source is in use
+     *
+     * @return Frame source runner, or null if the camera is in use
+     */
+    public FrameSourceRunner getFrameSourceRunner() {
+        return frameSourceRunner;
+    }
+
     /**
      * Get the actual frame size
      *
@@ -115,7 +145,77 @@ abstract class VisionOpModeCore extends OpMode implements CameraBridgeViewBase.C
 
     @Override
     public void init() {
-        //Initialize camera view
+        //Frame sources don't need the camera view, and off the device the caller loads OpenCV
+        if (frameSource != null) {
+            if (isOnDevice() && !loadOpenCV())
+                return;
+            initFrameSource();
+            return;
+        }
+
+        if (!loadOpenCV())
+            return;
+
+        final Activity activity = (Activity) hardwareMap.appContext;
+        final VisionOpModeCore t = this;
+
+        activity.runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                LinearLayout layout = new LinearLayout(activity);
+                layout.setOrientation(LinearLayout.VERTICAL);
+
+                layout.setLayoutParams(new LinearLayout.LayoutParams(
+                        ViewGroup.LayoutParams.WRAP_CONTENT, ViewGroup.LayoutParams.WRAP_CONTENT));
+
+                openCVCamera = new JavaCameraView(hardwareMap.appContext, 0);
+
+                layout.addView(openCVCamera);
+                layout.setVisibility(View.VISIBLE);
+
+                openCVCamera.setCvCameraViewListener(t);
+                if (openCVCamera != null)
+                    openCVCamera.disableView();
+                openCVCamera.enableView();
+                if (!openCVCamera.connectCamera(initialMaxSize, initialMaxSize))
+                    error("Could not initialize camera!\r\n" +
+                            "This may occur because the OpenCV Manager is not installed,\r\n" +
+                            "CAMERA permission is not allowed in AndroidManifest.xml,\r\n" +
+                            "or because another app is currently locking it.");
+
+                //Initialize FPS counter and sensors
+                fps = new FPS();
+                sensors = new Sensors();
+
+                //Done!
+                width = openCVCamera.getFrameWidth();
+                height = openCVCamera.getFrameHeight();
+                initialized = true;
+            }
+        });
+
+        while (!initialized) {
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Returns whether the op mode runs on a device, rather than headless from a frame source
+     */
+    private boolean isOnDevice() {
+        return hardwareMap != null && hardwareMap.appContext != null;
+    }
+
+    /**
+     * Load OpenCV through the Android loader, waiting until it is ready
+     *
+     * @return True if loaded, false if it could not be loaded from the package
+     */
+    private boolean loadOpenCV() {
         BaseLoaderCallback openCVLoaderCallback = null;
         try {
             openCVLoaderCallback = new BaseLoaderCallback(hardwareMap.appContext) {
@@ -140,9 +240,6 @@ abstract class VisionOpModeCore extends OpMode implements CameraBridgeViewBase.C
                     "Please install the app from the Google Play Store.");
         }
 
-        final Activity activity = (Activity) hardwareMap.appContext;
-        final VisionOpModeCore t = this;
-
         if (!OpenCVLoader.initDebug()) {
             Log.d("OpenCV", "Internal OpenCV library not found. Using OpenCV Manager for initialization");
             boolean success = OpenCVLoader.initAsync(OpenCVLoader.OPENCV_VERSION_3_0_0, hardwareMap.appContext, openCVLoaderCallback);
@@ -159,7 +256,7 @@ abstract class VisionOpModeCore extends OpMode implements CameraBridgeViewBase.C
                 openCVLoaderCallback.onManagerConnected(LoaderCallbackInterface.SUCCESS);
             else {
                 Log.e("OpenCV", "Failed to load OpenCV from package!");
-                return;
+                return false;
             }
         }
 
@@ -170,49 +267,34 @@ abstract class VisionOpModeCore extends OpMode implements CameraBridgeViewBase.C
                 e.printStackTrace();
             }
         }
+        return true;
+    }
 
-        activity.runOnUiThread(new Runnable() {
-            @Override
-            public void run() {
-                LinearLayout layout = new LinearLayout(activity);
-                layout.setOrientation(LinearLayout.VERTICAL);
-
-                layout.setLayoutParams(new LinearLayout.LayoutParams(
-                        ViewGroup.LayoutParams.WRAP_CONTENT, ViewGroup.LayoutParams.WRAP_CONTENT));
-
-                openCVCamera = new JavaCameraView(hardwareMap.appContext, 0);
-
-                layout.addView(openCVCamera);
-                layout.setVisibility(View.VISIBLE);
-
-                openCVCamera.setCvCameraViewListener(t);
-                if (openCVCamera != null)
-                    openCVCamera.disableView();
-                openCVCamera.enableView();
-                if (!openCVCamera.connectCamera(initialMaxSize, initialMaxSize))
-                    error("Could not initialize camera!\r\n" +
-                            "This may occur because the OpenCV Manager is not installed,\r\n" +
-                            "CAMERA permission is not allowed in AndroidManifest.xml,\r\n" +
-                            "or because another app is currently locking it.");
-
-                //Initialize FPS counter and sensors
-                fps = new FPS();
-                sensors = new Sensors();
+    private void initFrameSource() {
+        fps = new FPS();
+        //Sensors need an Android context
+        sensors = isOnDevice() ? new Sensors() : null;
 
-                //Done!
-                width = openCVCamera.getFrameWidth();
-                height = openCVCamera.getFrameHeight();
-                initialized = true;
+        frameSourceRunner = new FrameSourceRunner(frameSource, new FrameProcessor() {
+            @Override
+            public Mat frame(Mat rgba, Mat gray) {
+                return onSourceFrame(rgba, gray);
             }
         });
+        frameSourceRunner.open();
+        Size size = frameSource.getFrameSize();
+        width = (int) size.width;
+        height = (int) size.height;
 
-        while (!initialized) {
-            try {
-                Thread.sleep(50);
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            }
-        }
+        initialized = true;
+        frameSourceRunner.start();
+    }
+
+    private Mat onSourceFrame(Mat rgba, Mat gray) {
+        if (!initialized)
+            return rgba;
+        fps.update();
+        return frame(rgba, gray);
     }
 
     @Override
@@ -222,6 +304,11 @@ abstract class VisionOpModeCore extends OpMode implements CameraBridgeViewBase.C
 
     @Override
     public void stop() {
+        if (frameSourceRunner != null) {
+            frameSourceRunner.stop();
+            frameSourceRunner = null;
+        }
+
         if (openCVCamera != null) {
             openCVCamera.disableView();
             openCVCamera.disconnectCamera();
@@ -0,0 +1,23 @@
+/*
+ * Copyright (c) 2016 Arthur Pachachura, LASA Robotics, and contributors
+ * MIT licensed
+ */
+package org.lasarobotics.vision.opmode.extensions;
+
+/**
+ * Base class for vision extensions that run like extensions did before scheduling existed
+ * <p/>
+ * The extension is treated as a writer and runs on every frame, on the frame thread, in priority
+ * order. Override getFrameAccess() or getSchedule() to let VisionOpMode run it concurrently or less often.
+ */
+public abstract class AbstractVisionExtension implements VisionExtension {
+    @Override
+    public FrameAccess getFrameAccess() {
+        return FrameAccess.WRITE;
+    }
+
+    @Override
+    public ExtensionSchedule getSchedule() {
+        return ExtensionSchedule.everyFrame();
+    }
+}
@@ -4,19 +4,39 @@
  */
 package org.lasarobotics.vision.opmode.extensions;
 
+import org.lasarobotics.vision.detection.ColorBlobDetector;
 import org.lasarobotics.vision.detection.objects.Rectangle;
+import org.lasarobotics.vision.frame.FrameMailbox;
 import org.lasarobotics.vision.ftc.resq.Beacon;
 import org.lasarobotics.vision.opmode.VisionOpMode;
 import org.lasarobotics.vision.util.ScreenOrientation;
 import org.opencv.core.Mat;
 
+import java.util.concurrent.atomic.AtomicReference;
+
 /**
  * Extension that supports finding and reading beacon color data
+ * <p/>
+ * In asynchronous mode, analysis runs on a dedicated thread fed with the latest frame, so
+ * the camera preview is not held up by analysis.
  */
 public class BeaconExtension implements VisionExtension {
     private Beacon beacon;
 
-    private Beacon.BeaconAnalysis analysis = new Beacon.BeaconAnalysis();
+    private final AtomicReference<AnalysisResult> result =
+            new AtomicReference<>(new AnalysisResult(new Beacon.BeaconAnalysis(), 0, 0));
+    //Set from the op mode thread, read by the frame thread
+    private volatile boolean debug = false;
+    private volatile ExtensionSchedule schedule = ExtensionSchedule.everyFrame().deferrable();
+
+    //Asynchronous analysis
+    private final FrameMailbox mailbox = new FrameMailbox();
+    private volatile boolean async = false;
+    private final Object workerLock = new Object();
+    private Thread worker = null;
+    private boolean initialized = false;
+    //Numbers frames in both modes, so the sequence never goes backwards when switching
+    private long sequence = 0;
 
     /**
      * Get latest beacon analysis
@@ -24,7 +44,59 @@ public class BeaconExtension implements VisionExtension {
      * @return A Beacon.BeaconAnalysis struct
      */
     public Beacon.BeaconAnalysis getAnalysis() {
-        return analysis;
+        return result.get().getAnalysis();
+    }
+
+    /**
+     * Get latest beacon analysis together with the frame it was computed from
+     * The analysis, timestamp and sequence number are always consistent with each other.
+     *
+     * @return Latest analysis result
+     */
+    public AnalysisResult getAnalysisResult() {
+        return result.get();
+    }
+
+    /**
+     * Set whether beacon analysis runs on its own thread
+     * <p/>
+     * When enabled, frame() only copies the frame for the analysis thread, which always works
+     * on the most recent frame. Debug drawing then happens on the copy and is not displayed.
+     * Disabling waits for the analysis thread to finish its current frame, so that the beacon is
+     * never analyzed on two threads at once.
+     *
+     * @param async True to analyze asynchronously, false to analyze in frame() (default)
+     */
+    public void setAsync(boolean async) {
+        synchronized (workerLock) {
+            if (async) {
+                if (initialized)
+                    startWorker();
+                this.async = true;
+            } else {
+                //Frames posted meanwhile go to the closed mailbox and are dropped
+                stopWorker();
+                this.async = false;
+            }
+        }
+    }
+
+    /**
+     * Returns whether beacon analysis runs on its own thread
+     *
+     * @return True if asynchronous
+     */
+    public boolean isAsync() {
+        return async;
+    }
+
+    /**
+     * Get the number of frames the analysis thread skipped because newer frames arrived
+     *
+     * @return Skipped frame count
+     */
+    public long getAsyncDroppedFrameCount() {
+        return mailbox.getDroppedCount();
     }
 
     /**
@@ -67,6 +139,43 @@ public class BeaconExtension implements VisionExtension {
         beacon.setColorToleranceBlue(tolerance);
     }
 
+    /**
+     * Set the speed/accuracy preset used for color detection
+     *
+     * @param preset Color detection preset (default BALANCED)
+     */
+    public void setDetectionPreset(ColorBlobDetector.Preset preset) {
+        beacon.setDetectionPreset(preset);
+    }
+
+    /**
+     * Enable or disable tracking the beacon between frames
+     * While tracking, only a window around the predicted beacon location is searched.
+     *
+     * @param enabled True to enable tracking, false to analyze every frame from scratch (default)
+     */
+    public void setTrackingEnabled(boolean enabled) {
+        beacon.setTrackingEnabled(enabled);
+    }
+
+    /**
+     * Split full-frame ellipse detection into horizontal bands, each on its own thread
+     *
+     * @param bands Number of bands, or 1 to detect on the analysis thread only (default)
+     */
+    public void setEllipseBands(int bands) {
+        beacon.setEllipseBands(bands);
+    }
+
+    /**
+     * Set the time allowed to analyze a frame with the ANYTIME analysis method
+     *
+     * @param milliseconds Deadline in milliseconds (default 25)
+     */
+    public void setDeadline(double milliseconds) {
+        beacon.setDeadline(milliseconds);
+    }
+
     /**
      * Set analysis bounds
      * Areas of the image outside of the bounded area will not be processed
@@ -77,11 +186,22 @@ public class BeaconExtension implements VisionExtension {
         beacon.setAnalysisBounds(bounds);
     }
 
+    /**
+     * Set how often beacon analysis runs
+     * By default, analysis runs on every frame but may be deferred when the frame budget is exceeded.
+     *
+     * @param schedule Analysis schedule
+     */
+    public void setSchedule(ExtensionSchedule schedule) {
+        this.schedule = schedule;
+    }
+
     /**
      * Enable debug drawing. Use this on testing apps only, not the robot controller.
      */
     public void enableDebug() {
         beacon.enableDebug();
+        debug = true;
     }
 
     /**
@@ -89,38 +209,160 @@ public class BeaconExtension implements VisionExtension {
      */
     public void disableDebug() {
         beacon.disableDebug();
+        debug = false;
     }
 
     @Override
     public void init(VisionOpMode opmode) {
         //Initialize all detectors here
         beacon = new Beacon();
+
+        synchronized (workerLock) {
+            initialized = true;
+            if (async)
+                startWorker();
+        }
     }
 
-    @Override
-    public void loop(VisionOpMode opmode) {
+    private void startWorker() {
+        if (worker != null)
+            return;
+        mailbox.open();
+        worker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                analyzeFrames();
+            }
+        }, "FTCVision Beacon");
+        worker.setDaemon(true);
+        worker.start();
+    }
 
+    private void stopWorker() {
+        mailbox.close();
+        if (worker != null) {
+            try {
+                worker.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            worker = null;
+        }
     }
 
-    @Override
-    public Mat frame(VisionOpMode opmode, Mat rgba, Mat gray) {
+    private void analyzeFrames() {
+        try {
+            FrameMailbox.Entry frame;
+            while ((frame = mailbox.take()) != null) {
+                analyze(frame.rgba(), frame.gray(), frame.getTimestamp(), frame.getSequence());
+                mailbox.release();
+            }
+        } catch (InterruptedException e) {
+            //Stopping
+        }
+    }
+
+    private void analyze(Mat rgba, Mat gray, long timestamp, long sequence) {
         try {
             //Get screen orientation data
             ScreenOrientation orientation = ScreenOrientation.getFromAngle(
                     VisionOpMode.rotation.getRotationCompensationAngle());
 
-            //Get color analysis
-            this.analysis = beacon.analyzeFrame(rgba, gray, orientation);
+            //Get color analysis and publish it
+            Beacon.BeaconAnalysis analysis = beacon.analyzeFrame(rgba, gray, orientation);
+            result.set(new AnalysisResult(analysis, timestamp, sequence));
 
         } catch (Exception e) {
             e.printStackTrace();
         }
+    }
+
+    @Override
+    public void loop(VisionOpMode opmode) {
+
+    }
+
+    @Override
+    public Mat frame(VisionOpMode opmode, Mat rgba, Mat gray) {
+        long frameSequence = ++sequence;
+        if (async)
+            mailbox.post(rgba, gray, frameSequence);
+        else
+            analyze(rgba, gray, System.nanoTime(), frameSequence);
 
         return rgba;
     }
 
+    @Override
+    public ExtensionSchedule getSchedule() {
+        return schedule;
+    }
+
+    @Override
+    public FrameAccess getFrameAccess() {
+        //Debug mode draws on the frame, unless it's drawing on the asynchronous copy
+        return (debug && !async) ? FrameAccess.WRITE : FrameAccess.READ;
+    }
+
     @Override
     public void stop(VisionOpMode opmode) {
+        synchronized (workerLock) {
+            initialized = false;
+            stopWorker();
+            mailbox.releaseBuffers();
+        }
+        if (beacon != null)
+            beacon.release();
+    }
+
+    /**
+     * Beacon analysis along with the frame it was computed from
+     */
+    public static final class AnalysisResult {
+        private final Beacon.BeaconAnalysis analysis;
+        private final long timestamp;
+        private final long sequence;
+
+        AnalysisResult(Beacon.BeaconAnalysis analysis, long timestamp, long sequence) {
+            this.analysis = analysis;
+            this.timestamp = timestamp;
+            this.sequence = sequence;
+        }
+
+        /**
+         * Get the beacon analysis
+         *
+         * @return Beacon analysis
+         */
+        public Beacon.BeaconAnalysis getAnalysis() {
+            return analysis;
+        }
 
+        /**
+         * Get the time the analyzed frame was received
+         *
+         * @return Timestamp from System.nanoTime(), or zero if nothing was analyzed yet
+         */
+        public long getFrameTimestamp() {
+            return timestamp;
+        }
+
+        /**
+         * Get the sequence number of the analyzed frame
+         *
+         * @return Sequence number starting at 1, or zero if nothing was analyzed yet
+         */
+        public long getFrameSequence() {
+            return sequence;
+        }
+
+        /**
+         * Get the age of the analyzed frame
+         *
+         * @return Age in milliseconds
+         */
+        public double getAgeMillis() {
+            return (System.nanoTime() - timestamp) / 1e6;
+        }
     }
 }
\ No newline at end of file
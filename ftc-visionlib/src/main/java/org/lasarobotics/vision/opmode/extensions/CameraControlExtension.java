@@ -169,6 +169,18 @@ public class CameraControlExtension implements VisionExtension {
         return rgba;
     }
 
+    @Override
+    public ExtensionSchedule getSchedule() {
+        //Parameters only change when a setter is called, so a couple checks per second are plenty
+        return ExtensionSchedule.atRate(2).deferrable();
+    }
+
+    @Override
+    public FrameAccess getFrameAccess() {
+        //Camera parameters must only be changed from one thread, so never run on the reader pool
+        return FrameAccess.WRITE;
+    }
+
     @SuppressWarnings("AccessStaticViaInstance")
     @Override
     public void stop(VisionOpMode opmode) {
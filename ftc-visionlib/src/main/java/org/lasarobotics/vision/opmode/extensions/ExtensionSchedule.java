@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2016 Arthur Pachachura, LASA Robotics, and contributors
+ * MIT licensed
+ */
+package org.lasarobotics.vision.opmode.extensions;
+
+/**
+ * How often a vision extension needs to process frames
+ * <p/>
+ * A deferrable extension may also be postponed to a later frame when the op mode's
+ * frame budget would otherwise be exceeded.
+ */
+public final class ExtensionSchedule {
+    private final int frameInterval;
+    private final long periodNanos;
+    private final boolean deferrable;
+
+    private ExtensionSchedule(int frameInterval, long periodNanos, boolean deferrable) {
+        this.frameInterval = frameInterval;
+        this.periodNanos = periodNanos;
+        this.deferrable = deferrable;
+    }
+
+    /**
+     * Run on every frame
+     *
+     * @return Schedule
+     */
+    public static ExtensionSchedule everyFrame() {
+        return new ExtensionSchedule(1, 0, false);
+    }
+
+    /**
+     * Run on every Nth frame
+     *
+     * @param n Frame interval, at least 1
+     * @return Schedule
+     */
+    public static ExtensionSchedule everyNthFrame(int n) {
+        if (n < 1)
+            throw new IllegalArgumentException("Frame interval must be at least 1");
+        return new ExtensionSchedule(n, 0, false);
+    }
+
+    /**
+     * Run at most at a target rate
+     *
+     * @param hz Target rate in frames per second
+     * @return Schedule
+     */
+    public static ExtensionSchedule atRate(double hz) {
+        if (hz <= 0)
+            throw new IllegalArgumentException("Rate must be positive");
+        return new ExtensionSchedule(1, (long) (1e9 / hz), false);
+    }
+
+    /**
+     * Get a copy of this schedule that may be deferred when the frame budget is exceeded
+     *
+     * @return Deferrable schedule
+     */
+    public ExtensionSchedule deferrable() {
+        return new ExtensionSchedule(frameInterval, periodNanos, true);
+    }
+
+    /**
+     * Returns whether the extension should run on a frame
+     *
+     * @param frameNumber  Number of the current frame
+     * @param nowNanos     Current time, from System.nanoTime()
+     * @param lastFrame    Number of the last frame the extension ran on, or -1 if never
+     * @param lastRunNanos Time the extension last ran
+     * @return True if the extension is due
+     */
+    public boolean isDue(long frameNumber, long nowNanos, long lastFrame, long lastRunNanos) {
+        if (lastFrame < 0)
+            return true;
+        return frameNumber - lastFrame >= frameInterval && nowNanos - lastRunNanos >= periodNanos;
+    }
+
+    /**
+     * Returns whether the extension may be postponed when the frame budget is exceeded
+     *
+     * @return True if deferrable
+     */
+    public boolean isDeferrable() {
+        return deferrable;
+    }
+
+    /**
+     * Get the frame interval
+     *
+     * @return Run every N frames
+     */
+    public int getFrameInterval() {
+        return frameInterval;
+    }
+
+    /**
+     * Get the minimum time between runs
+     *
+     * @return Period in nanoseconds, or zero if unlimited
+     */
+    public long getPeriodNanos() {
+        return periodNanos;
+    }
+}
@@ -0,0 +1,19 @@
+/*
+ * Copyright (c) 2016 Arthur Pachachura, LASA Robotics, and contributors
+ * MIT licensed
+ */
+package org.lasarobotics.vision.opmode.extensions;
+
+/**
+ * How a vision extension accesses the frame during frame()
+ */
+public enum FrameAccess {
+    /**
+     * The extension only reads the frame and may run concurrently with other extensions
+     */
+    READ,
+    /**
+     * The extension modifies the frame (including drawing on it) and runs alone, in order
+     */
+    WRITE
+}
@@ -21,7 +21,9 @@ import org.opencv.core.Mat;
  */
 public class ImageRotationExtension implements VisionExtension {
 
-    private final Sensors sensors = new Sensors();
+    //Created on first use, since there are no sensors when running off the device
+    private Sensors sensors = null;
+    private boolean sensorsAvailable = true;
     private boolean isInverted = false;
     private ScreenOrientation zeroOrientation = ScreenOrientation.LANDSCAPE;
 
@@ -115,7 +117,8 @@ public class ImageRotationExtension implements VisionExtension {
      * @return Screen orientation as reported by the current activity
      */
     public ScreenOrientation getScreenOrientationDisplay() {
-        return sensors.getActivityScreenOrientation();
+        Sensors sensors = getSensors();
+        return sensors != null ? sensors.getActivityScreenOrientation() : ScreenOrientation.LANDSCAPE;
     }
 
     /**
@@ -127,7 +130,8 @@ public class ImageRotationExtension implements VisionExtension {
      * @return Screen orientation as reported by Android sensors
      */
     public ScreenOrientation getScreenOrientationActual() {
-        return sensors.getScreenOrientation();
+        Sensors sensors = getSensors();
+        return sensors != null ? sensors.getScreenOrientation() : ScreenOrientation.LANDSCAPE;
     }
 
     /**
@@ -142,11 +146,28 @@ public class ImageRotationExtension implements VisionExtension {
      * Android API drawing orientation.
      */
     public double getRotationCompensationAngle() {
-        return (isInverted ? -1 : 1) * ScreenOrientation.getFromAngle(sensors.getScreenOrientationCompensation() + zeroOrientation.getAngle()).getAngle();
+        return (isInverted ? -1 : 1) * ScreenOrientation.getFromAngle(getCompensation() + zeroOrientation.getAngle()).getAngle();
     }
 
     private double getRotationCompensationAngleUnbiased() {
-        return (isInverted ? -1 : 1) * sensors.getScreenOrientationCompensation();
+        return (isInverted ? -1 : 1) * getCompensation();
+    }
+
+    private double getCompensation() {
+        Sensors sensors = getSensors();
+        return sensors != null ? sensors.getScreenOrientationCompensation() : 0;
+    }
+
+    private synchronized Sensors getSensors() {
+        if (sensors == null && sensorsAvailable) {
+            try {
+                sensors = new Sensors();
+            } catch (IllegalArgumentException e) {
+                //No Android context, such as when running headless from a frame source
+                sensorsAvailable = false;
+            }
+        }
+        return sensors;
     }
 
     /**
@@ -186,7 +207,9 @@ public class ImageRotationExtension implements VisionExtension {
 
     @Override
     public void init(VisionOpMode opmode) {
-        sensors.resume();
+        Sensors sensors = getSensors();
+        if (sensors != null)
+            sensors.resume();
     }
 
     @Override
@@ -203,8 +226,21 @@ public class ImageRotationExtension implements VisionExtension {
         return rgba;
     }
 
+    @Override
+    public ExtensionSchedule getSchedule() {
+        //Every displayed frame must be rotated
+        return ExtensionSchedule.everyFrame();
+    }
+
+    @Override
+    public FrameAccess getFrameAccess() {
+        return FrameAccess.WRITE;
+    }
+
     @Override
     public void stop(VisionOpMode opmode) {
-        sensors.stop();
+        Sensors sensors = getSensors();
+        if (sensors != null)
+            sensors.stop();
     }
 }
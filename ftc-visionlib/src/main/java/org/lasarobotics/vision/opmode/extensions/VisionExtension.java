@@ -9,6 +9,9 @@ import org.opencv.core.Mat;
 
 /**
  * Interface for vision extensions for VisionOpMode
+ * <p/>
+ * getFrameAccess() and getSchedule() were added to this interface, so extensions written before
+ * them no longer compile. Extend AbstractVisionExtension instead to keep their previous behavior.
  */
 public interface VisionExtension {
     void init(VisionOpMode opmode);
@@ -17,5 +20,20 @@ public interface VisionExtension {
 
     Mat frame(VisionOpMode opmode, Mat rgba, Mat gray);
 
+    /**
+     * Get how this extension accesses the frame in frame()
+     * Extensions that only read the frame may be run concurrently on a worker thread.
+     *
+     * @return Frame access
+     */
+    FrameAccess getFrameAccess();
+
+    /**
+     * Get how often this extension needs to process frames
+     *
+     * @return Schedule
+     */
+    ExtensionSchedule getSchedule();
+
     void stop(VisionOpMode opmode);
 }
@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) 2016 Arthur Pachachura, LASA Robotics, and contributors
+ * MIT licensed
+ */
+package org.lasarobotics.vision.util;
+
+import java.text.DecimalFormat;
+import java.util.Arrays;
+
+/**
+ * Records the latest latency samples (in nanoseconds) and reports percentiles over them
+ * <p/>
+ * Samples are kept in a fixed-size ring, so recording never allocates.
+ * All methods are thread-safe.
+ */
+public class LatencyHistogram {
+    private static final int DEFAULT_CAPACITY = 256;
+
+    private final long[] samples;
+    private final long[] sorted;
+    //DecimalFormat is not thread-safe, so each histogram formats under its own lock
+    private final DecimalFormat msFormat = new DecimalFormat("0.00");
+    private int next = 0;
+    private int size = 0;
+    private long count = 0;
+    private long last = 0;
+
+    /**
+     * Instantiate a histogram holding the last 256 samples
+     */
+    public LatencyHistogram() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Instantiate a histogram holding a fixed number of the latest samples
+     *
+     * @param capacity Number of samples to keep
+     */
+    public LatencyHistogram(int capacity) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("Capacity must be at least 1");
+        samples = new long[capacity];
+        sorted = new long[capacity];
+    }
+
+    /**
+     * Record a latency sample
+     *
+     * @param nanos Latency in nanoseconds
+     */
+    public synchronized void record(long nanos) {
+        samples[next] = nanos;
+        next = (next + 1) % samples.length;
+        if (size < samples.length)
+            size++;
+        count++;
+        last = nanos;
+    }
+
+    /**
+     * Get a latency percentile over the retained samples
+     *
+     * @param percentile Percentile, from 0 to 100
+     * @return Latency in nanoseconds, or 0 if nothing has been recorded
+     */
+    public synchronized long getPercentile(double percentile) {
+        if (size == 0)
+            return 0;
+        System.arraycopy(samples, 0, sorted, 0, size);
+        Arrays.sort(sorted, 0, size);
+        //Nearest-rank percentile
+        int rank = (int) Math.ceil(MathUtil.coerce(0, 100, percentile) / 100.0 * size);
+        return sorted[Math.max(rank - 1, 0)];
+    }
+
+    /**
+     * Get the median latency
+     *
+     * @return Latency in nanoseconds
+     */
+    public long getP50() {
+        return getPercentile(50);
+    }
+
+    /**
+     * Get the 95th percentile latency
+     *
+     * @return Latency in nanoseconds
+     */
+    public long getP95() {
+        return getPercentile(95);
+    }
+
+    /**
+     * Get the 99th percentile latency
+     *
+     * @return Latency in nanoseconds
+     */
+    public long getP99() {
+        return getPercentile(99);
+    }
+
+    /**
+     * Get the most recent sample
+     *
+     * @return Latency in nanoseconds
+     */
+    public synchronized long getLast() {
+        return last;
+    }
+
+    /**
+     * Get the total number of samples ever recorded, including those no longer retained
+     *
+     * @return Sample count
+     */
+    public synchronized long getCount() {
+        return count;
+    }
+
+    /**
+     * Clear all samples
+     */
+    public synchronized void reset() {
+        next = 0;
+        size = 0;
+        count = 0;
+        last = 0;
+    }
+
+    /**
+     * Get a string with the p50, p95 and p99 latencies in milliseconds
+     *
+     * @return Latency summary
+     */
+    @Override
+    public String toString() {
+        synchronized (this) {
+            return "p50 " + msFormat.format(getP50() / 1e6) +
+                    " p95 " + msFormat.format(getP95() / 1e6) +
+                    " p99 " + msFormat.format(getP99() / 1e6) + " ms";
+        }
+    }
+}
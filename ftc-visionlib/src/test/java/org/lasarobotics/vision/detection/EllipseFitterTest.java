@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2016 Arthur Pachachura, LASA Robotics, and contributors
+ * MIT licensed
+ */
+package org.lasarobotics.vision.detection;
+
+import org.junit.Test;
+import org.opencv.core.RotatedRect;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Fits ellipses to points sampled from known ellipses and rounded to pixels, as in a contour
+ */
+public class EllipseFitterTest {
+    private static final double CENTER_TOLERANCE = 0.5;
+    private static final double AXIS_TOLERANCE = 1.0;
+    private static final double ANGLE_TOLERANCE = 1.0;
+
+    /**
+     * Sample an ellipse at evenly spaced parameters, rounding each point to the nearest pixel
+     *
+     * @param cx     Center x
+     * @param cy     Center y
+     * @param width  Full length of the axis at the angle
+     * @param height Full length of the other axis
+     * @param angle  Direction of the width axis in degrees
+     * @param count  Number of points
+     * @return Interleaved x and y coordinates
+     */
+    private static int[] sample(double cx, double cy, double width, double height, double angle, int count) {
+        double cos = Math.cos(Math.toRadians(angle));
+        double sin = Math.sin(Math.toRadians(angle));
+        int[] points = new int[count * 2];
+        for (int i = 0; i < count; i++) {
+            double t = 2 * Math.PI * i / count;
+            double u = width / 2 * Math.cos(t);
+            double v = height / 2 * Math.sin(t);
+            points[i * 2] = (int) Math.round(cx + u * cos - v * sin);
+            points[i * 2 + 1] = (int) Math.round(cy + u * sin + v * cos);
+        }
+        return points;
+    }
+
+    private static void assertAngle(double expected, double actual) {
+        //Angles are equivalent modulo 180 degrees
+        double d = Math.abs(expected - actual) % 180;
+        assertEquals(0, Math.min(d, 180 - d), ANGLE_TOLERANCE);
+    }
+
+    @Test
+    public void fitsAxisAlignedEllipse() {
+        RotatedRect fit = EllipseFitter.fit(sample(320, 240, 60, 140, 0, 40), 40);
+        assertNotNull(fit);
+        assertEquals(320, fit.center.x, CENTER_TOLERANCE);
+        assertEquals(240, fit.center.y, CENTER_TOLERANCE);
+        assertEquals(60, fit.size.width, AXIS_TOLERANCE);
+        assertEquals(140, fit.size.height, AXIS_TOLERANCE);
+        assertAngle(0, fit.angle);
+    }
+
+    @Test
+    public void fitsRotatedEllipse() {
+        RotatedRect fit = EllipseFitter.fit(sample(150.5, 90.25, 50, 120, 35, 60), 60);
+        assertNotNull(fit);
+        assertEquals(150.5, fit.center.x, CENTER_TOLERANCE);
+        assertEquals(90.25, fit.center.y, CENTER_TOLERANCE);
+        assertEquals(50, fit.size.width, AXIS_TOLERANCE);
+        assertEquals(120, fit.size.height, AXIS_TOLERANCE);
+        assertAngle(35, fit.angle);
+    }
+
+    @Test
+    public void reportsMinorAxisAsWidth() {
+        //The longer axis is given first, so the fit must swap the axes and turn the angle by 90 degrees
+        RotatedRect fit = EllipseFitter.fit(sample(200, 200, 160, 80, 120, 60), 60);
+        assertNotNull(fit);
+        assertEquals(80, fit.size.width, AXIS_TOLERANCE);
+        assertEquals(160, fit.size.height, AXIS_TOLERANCE);
+        assertAngle(30, fit.angle);
+        assertTrue(fit.angle >= 0 && fit.angle < 180);
+    }
+
+    @Test
+    public void fitsCircle() {
+        RotatedRect fit = EllipseFitter.fit(sample(64, 48, 40, 40, 0, 24), 24);
+        assertNotNull(fit);
+        assertEquals(64, fit.center.x, CENTER_TOLERANCE);
+        assertEquals(48, fit.center.y, CENTER_TOLERANCE);
+        assertEquals(40, fit.size.width, AXIS_TOLERANCE);
+        assertEquals(40, fit.size.height, AXIS_TOLERANCE);
+    }
+
+    @Test
+    public void usesOnlyCountPoints() {
+        int[] points = sample(100, 100, 30, 70, 60, 30);
+        int[] padded = new int[points.length + 10];
+        System.arraycopy(points, 0, padded, 0, points.length);
+        RotatedRect fit = EllipseFitter.fit(padded, 30);
+        assertNotNull(fit);
+        assertEquals(100, fit.center.x, CENTER_TOLERANCE);
+        assertEquals(100, fit.center.y, CENTER_TOLERANCE);
+    }
+
+    @Test
+    public void rejectsTooFewPoints() {
+        assertNull(EllipseFitter.fit(sample(100, 100, 30, 70, 0, 4), 4));
+    }
+
+    @Test
+    public void rejectsIdenticalPoints() {
+        int[] points = new int[12];
+        for (int i = 0; i < points.length; i++)
+            points[i] = 7;
+        assertNull(EllipseFitter.fit(points, 6));
+    }
+}
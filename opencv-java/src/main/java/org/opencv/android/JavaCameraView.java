@@ -30,15 +30,18 @@ public class JavaCameraView extends CameraBridgeViewBase implements PreviewCallb
 
     private static final int MAGIC_TEXTURE_ID = 10;
     private static final String TAG = "JavaCameraView";
+    private static final int DEFAULT_CALLBACK_BUFFERS = 3;
     protected Camera mCamera;
-    protected JavaCameraFrame[] mCameraFrame;
-    private byte mBuffer[];
-    private Mat[] mFrameChain;
-    private int mChainIdx = 0;
+    protected JavaCameraFrame mCameraFrame;
+    private int mCallbackBufferCount = DEFAULT_CALLBACK_BUFFERS;
+    /* Buffers owned by the camera are queued with addCallbackBuffer; the latest filled
+     * buffer is owned by this view until the worker takes it, copies it and returns it. */
+    private byte[] mPendingBuffer;
+    private Mat mFrameData;
+    private long mDroppedFrames = 0;
     private Thread mThread;
     private boolean mStopThread;
     private SurfaceTexture mSurfaceTexture;
-    private boolean mCameraFrameReady = false;
 
     public JavaCameraView(Context context, int cameraId) {
         super(context, cameraId);
@@ -60,6 +63,30 @@ public class JavaCameraView extends CameraBridgeViewBase implements PreviewCallb
 
     public Camera getCamera() { return mCamera; }
 
+    /**
+     * Set the number of preview buffers handed to the camera.
+     * With more than one buffer the camera keeps capturing while a frame is being processed.
+     * Takes effect the next time the camera is connected.
+     * @param count - number of buffers, at least 2.
+     */
+    public void setCallbackBufferCount(int count) {
+        if (count < 2)
+            throw new IllegalArgumentException("At least 2 callback buffers are required");
+        mCallbackBufferCount = count;
+    }
+
+    public int getCallbackBufferCount() {
+        return mCallbackBufferCount;
+    }
+
+    /**
+     * @return number of captured frames that were replaced by a newer frame before the
+     * processing thread got to them.
+     */
+    public synchronized long getDroppedFrameCount() {
+        return mDroppedFrames;
+    }
+
     protected boolean initializeCamera(int width, int height) {
         Log.d(TAG, "Initialize java camera");
         boolean result = true;
@@ -170,20 +197,17 @@ public class JavaCameraView extends CameraBridgeViewBase implements PreviewCallb
 
                     int size = mFrameWidth * mFrameHeight;
                     size  = size * ImageFormat.getBitsPerPixel(params.getPreviewFormat()) / 8;
-                    mBuffer = new byte[size];
-
-                    mCamera.addCallbackBuffer(mBuffer);
+                    mPendingBuffer = null;
+                    mDroppedFrames = 0;
+                    for (int i = 0; i < mCallbackBufferCount; i++)
+                        mCamera.addCallbackBuffer(new byte[size]);
                     mCamera.setPreviewCallbackWithBuffer(this);
 
-                    mFrameChain = new Mat[2];
-                    mFrameChain[0] = new Mat(mFrameHeight + (mFrameHeight/2), mFrameWidth, CvType.CV_8UC1);
-                    mFrameChain[1] = new Mat(mFrameHeight + (mFrameHeight/2), mFrameWidth, CvType.CV_8UC1);
+                    mFrameData = new Mat(mFrameHeight + (mFrameHeight/2), mFrameWidth, CvType.CV_8UC1);
 
                     AllocateCache();
 
-                    mCameraFrame = new JavaCameraFrame[2];
-                    mCameraFrame[0] = new JavaCameraFrame(mFrameChain[0], mFrameWidth, mFrameHeight);
-                    mCameraFrame[1] = new JavaCameraFrame(mFrameChain[1], mFrameWidth, mFrameHeight);
+                    mCameraFrame = new JavaCameraFrame(mFrameData, mFrameWidth, mFrameHeight);
 
                     if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
                         mSurfaceTexture = new SurfaceTexture(MAGIC_TEXTURE_ID);
@@ -215,13 +239,12 @@ public class JavaCameraView extends CameraBridgeViewBase implements PreviewCallb
                 mCamera.release();
             }
             mCamera = null;
-            if (mFrameChain != null) {
-                mFrameChain[0].release();
-                mFrameChain[1].release();
+            mPendingBuffer = null;
+            if (mFrameData != null) {
+                mFrameData.release();
             }
             if (mCameraFrame != null) {
-                mCameraFrame[0].release();
-                mCameraFrame[1].release();
+                mCameraFrame.release();
             }
         }
     }
@@ -237,8 +260,6 @@ public class JavaCameraView extends CameraBridgeViewBase implements PreviewCallb
         if (!initializeCamera(width, height))
             return false;
 
-        mCameraFrameReady = false;
-
         /* now we can start update thread */
         Log.d(TAG, "Starting processing thread");
         mStopThread = false;
@@ -273,20 +294,21 @@ public class JavaCameraView extends CameraBridgeViewBase implements PreviewCallb
 
         /* Now release camera */
         releaseCamera();
-
-        mCameraFrameReady = false;
     }
 
     @Override
     public void onPreviewFrame(byte[] frame, Camera arg1) {
-        Log.d(TAG, "Preview Frame received. Frame size: " + frame.length);
+        /* Hand the buffer to the worker without copying. If the worker has not taken the
+         * previous frame yet, that frame is stale: give its buffer back to the camera. */
         synchronized (this) {
-            mFrameChain[mChainIdx].put(0, 0, frame);
-            mCameraFrameReady = true;
+            if (mPendingBuffer != null) {
+                mDroppedFrames++;
+                if (mCamera != null)
+                    mCamera.addCallbackBuffer(mPendingBuffer);
+            }
+            mPendingBuffer = frame;
             this.notify();
         }
-        if (mCamera != null)
-            mCamera.addCallbackBuffer(mBuffer);
     }
 
     public static class JavaCameraSizeAccessor implements ListItemAccessor {
@@ -304,9 +326,15 @@ public class JavaCameraView extends CameraBridgeViewBase implements PreviewCallb
         }
     }
 
+    /**
+     * Frame backed by the NV21 preview data. Gray is the Y plane itself; RGBA is
+     * converted on first request and cached until the next frame arrives.
+     */
     private class JavaCameraFrame implements CvCameraViewFrame {
         private Mat mYuvFrameData;
+        private Mat mGray;
         private Mat mRgba;
+        private boolean mRgbaValid = false;
         private int mWidth;
         private int mHeight;
 
@@ -315,21 +343,33 @@ public class JavaCameraView extends CameraBridgeViewBase implements PreviewCallb
             mWidth = width;
             mHeight = height;
             mYuvFrameData = Yuv420sp;
+            mGray = mYuvFrameData.submat(0, mHeight, 0, mWidth);
             mRgba = new Mat();
         }
 
         @Override
         public Mat gray() {
-            return mYuvFrameData.submat(0, mHeight, 0, mWidth);
+            return mGray;
         }
 
         @Override
         public Mat rgba() {
-            Imgproc.cvtColor(mYuvFrameData, mRgba, Imgproc.COLOR_YUV2RGBA_NV21, 4);
+            if (!mRgbaValid) {
+                Imgproc.cvtColor(mYuvFrameData, mRgba, Imgproc.COLOR_YUV2RGBA_NV21, 4);
+                mRgbaValid = true;
+            }
             return mRgba;
         }
 
+        /**
+         * Drop cached conversions; called whenever new preview data is copied in.
+         */
+        public void invalidate() {
+            mRgbaValid = false;
+        }
+
         public void release() {
+            mGray.release();
             mRgba.release();
         }
     }
@@ -339,22 +379,31 @@ public class JavaCameraView extends CameraBridgeViewBase implements PreviewCallb
         @Override
         public void run() {
             do {
+                byte[] buffer = null;
                 synchronized (JavaCameraView.this) {
                     try {
-                        while (!mCameraFrameReady && !mStopThread) {
+                        while (mPendingBuffer == null && !mStopThread) {
                             JavaCameraView.this.wait();
                         }
                     } catch (InterruptedException e) {
                         e.printStackTrace();
                     }
-                    if (mCameraFrameReady)
-                        mChainIdx = 1 - mChainIdx;
+                    if (!mStopThread) {
+                        buffer = mPendingBuffer;
+                        mPendingBuffer = null;
+                    }
                 }
 
-                if (!mStopThread && mCameraFrameReady) {
-                    mCameraFrameReady = false;
-                    if (!mFrameChain[1 - mChainIdx].empty())
-                        deliverAndDrawFrame(mCameraFrame[1 - mChainIdx]);
+                if (buffer != null) {
+                    /* The Java bindings cannot wrap a byte[] in a Mat, so one copy remains,
+                     * but it runs here while the camera fills its other buffers. */
+                    mFrameData.put(0, 0, buffer);
+                    mCameraFrame.invalidate();
+                    synchronized (JavaCameraView.this) {
+                        if (mCamera != null)
+                            mCamera.addCallbackBuffer(buffer);
+                    }
+                    deliverAndDrawFrame(mCameraFrame);
                 }
             } while (!mStopThread);
             Log.d(TAG, "Finish processing thread");